@@ -0,0 +1,81 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.io.UnsupportedEncodingException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the KDX filename hash, which is calculated for every PDF file.
+ * 
+ * @author gyaikhom
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChecksumBenchmark {
+	private Checksum checksum = new Checksum();
+	private String dir = "Gamma/Interesting sea creatures/Fish/Big/";
+	private String fname = "The Adventures of Sherlock Holmes.pdf";
+	private String path = dir + fname;
+
+	@Benchmark
+	public String filenameHash() throws NoSuchAlgorithmException,
+			UnsupportedEncodingException {
+		return checksum.getKDXFilenameHash(path);
+	}
+
+	@Benchmark
+	public String filenameHashDirectory() throws NoSuchAlgorithmException,
+			UnsupportedEncodingException {
+		return checksum.getKDXFilenameHash(dir, fname);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String filenameHashContended() throws NoSuchAlgorithmException,
+			UnsupportedEncodingException {
+		return checksum.getKDXFilenameHash(dir, fname);
+	}
+}
+// Created 16 October 2026, 8:41pm
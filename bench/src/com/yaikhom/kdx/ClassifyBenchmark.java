@@ -0,0 +1,109 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the classification of a single file: the extension checks, the
+ * AZW filename parsing, and the key generation. No file is accessed.
+ * 
+ * @author gyaikhom
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClassifyBenchmark {
+	/*
+	 * Held, so that the level set below is not lost when the logger is
+	 * garbage collected; log output would otherwise dominate the results.
+	 */
+	private static final Logger logger = Logger.getLogger("com.yaikhom.kdx");
+
+	private static final String dir = "Fiction/Classics/";
+	private Manager kdxm;
+	private Path pdf, azw, azwNoAsin, other;
+
+	@Setup
+	public void setup() throws SecurityException, IOException {
+		logger.setLevel(Level.WARNING);
+		kdxm = new Manager("/mnt/kdx", false);
+		Path d = Paths.get("/mnt/kdx/documents/Fiction/Classics");
+		pdf = d.resolve("Treasure Island.pdf");
+		azw = d.resolve("The Adventures of Sherlock Holme"
+				+ "-asin_B000JQU1VS-type_EBOK-v_0.azw");
+		azwNoAsin = d.resolve("Treasure-Island.azw");
+		other = d.resolve("cover.jpg");
+	}
+
+	@Benchmark
+	public Item classifyPDF() throws NoSuchAlgorithmException,
+			UnsupportedEncodingException {
+		return kdxm.createItem(pdf, dir);
+	}
+
+	@Benchmark
+	public Item classifyAZW() throws NoSuchAlgorithmException,
+			UnsupportedEncodingException {
+		return kdxm.createItem(azw, dir);
+	}
+
+	@Benchmark
+	public Item classifyRejectedAZW() throws NoSuchAlgorithmException,
+			UnsupportedEncodingException {
+		return kdxm.createItem(azwNoAsin, dir);
+	}
+
+	@Benchmark
+	public Item classifyOther() throws NoSuchAlgorithmException,
+			UnsupportedEncodingException {
+		return kdxm.createItem(other, dir);
+	}
+}
+// Created 16 October 2026, 8:41pm
@@ -0,0 +1,334 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+
+/**
+ * Creates a synthetic Kindle device root, with the {@code audible/},
+ * {@code documents/}, {@code music/} and {@code system/} directories. The
+ * documents tree has the supplied depth and fan-out, and every directory
+ * below the documents root contains the supplied number of empty files. The
+ * files are a mix of PDF documents and AZW documents whose names follow the
+ * ASIN naming convention. Names are padded with random letters to the supplied
+ * length, using a seeded generator so that the same tree is generated on
+ * every run.
+ * 
+ * @author gyaikhom
+ */
+public class LibraryGenerator {
+	private int depth = 2;
+	private int fanout = 10;
+	private int files = 10;
+	private double pdfRatio = 0.5;
+	private int nameLength = 24;
+	private long seed = 1;
+	private Random random;
+	private long asin;
+	private long fileCount;
+	private long directoryCount;
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Sets the number of directory levels below the documents root.
+	 * 
+	 * @param depth
+	 *            the depth, at least 1.
+	 */
+	public void setDepth(int depth) {
+		this.depth = Math.max(1, depth);
+	}
+
+	public int getFanout() {
+		return fanout;
+	}
+
+	/**
+	 * Sets the number of subdirectories of every directory above the leaves.
+	 * 
+	 * @param fanout
+	 *            the fan-out, at least 1.
+	 */
+	public void setFanout(int fanout) {
+		this.fanout = Math.max(1, fanout);
+	}
+
+	public int getFiles() {
+		return files;
+	}
+
+	/**
+	 * Sets the number of files in every directory below the documents root.
+	 * 
+	 * @param files
+	 *            the number of files per directory.
+	 */
+	public void setFiles(int files) {
+		this.files = Math.max(0, files);
+	}
+
+	public double getPdfRatio() {
+		return pdfRatio;
+	}
+
+	/**
+	 * Sets the fraction of files that are PDF documents. The others are AZW
+	 * documents.
+	 * 
+	 * @param pdfRatio
+	 *            the fraction, between 0 and 1.
+	 */
+	public void setPdfRatio(double pdfRatio) {
+		this.pdfRatio = Math.min(1.0, Math.max(0.0, pdfRatio));
+	}
+
+	public int getNameLength() {
+		return nameLength;
+	}
+
+	/**
+	 * Sets the length of the generated directory names, and of the file names
+	 * before the ASIN suffix and the extension.
+	 * 
+	 * @param nameLength
+	 *            the name length.
+	 */
+	public void setNameLength(int nameLength) {
+		this.nameLength = Math.max(1, nameLength);
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Returns the number of directories below the documents root, for the
+	 * current depth and fan-out.
+	 * 
+	 * @return the number of directories.
+	 */
+	public long countDirectories() {
+		long n = 0, level = 1;
+		for (int i = 0; i < depth; i++) {
+			level *= fanout;
+			n += level;
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the number of files generated for the current parameters.
+	 * 
+	 * @return the number of files.
+	 */
+	public long countFiles() {
+		return countDirectories() * files;
+	}
+
+	/**
+	 * Returns a name of the configured length, which starts with the supplied
+	 * prefix and is padded with random letters.
+	 */
+	private String getName(String prefix) {
+		StringBuilder buf = new StringBuilder(nameLength);
+		buf.append(prefix);
+		while (buf.length() < nameLength)
+			buf.append((char) ('a' + random.nextInt(26)));
+		return buf.toString();
+	}
+
+	/**
+	 * Creates the files of a directory, and its subdirectories.
+	 */
+	private void generate(Path dir, int level) throws IOException {
+		for (int i = 0; i < files; i++) {
+			String name = getName("Book " + i + " ");
+			if (random.nextDouble() < pdfRatio) {
+				name += ".pdf";
+			} else {
+				name += "-asin_B" + String.format("%09d", asin++)
+						+ "-type_EBOK-v_0.azw";
+			}
+			Files.createFile(dir.resolve(name));
+			fileCount++;
+		}
+		if (level < depth) {
+			for (int i = 0; i < fanout; i++) {
+				Path sub = Files.createDirectory(dir.resolve(getName("Topic "
+						+ i + " ")));
+				directoryCount++;
+				generate(sub, level + 1);
+			}
+		}
+	}
+
+	/**
+	 * Creates a Kindle device root in the supplied directory, which is created
+	 * if it does not exist.
+	 * 
+	 * @param root
+	 *            the device root.
+	 * @return the device root.
+	 * @throws IOException
+	 */
+	public Path generate(Path root) throws IOException {
+		random = new Random(seed);
+		asin = 0;
+		fileCount = 0;
+		directoryCount = 0;
+		Files.createDirectories(root);
+		Files.createDirectory(root.resolve("audible"));
+		Files.createDirectory(root.resolve("music"));
+		Files.createDirectory(root.resolve("system"));
+		Path docs = Files.createDirectory(root.resolve("documents"));
+		for (int i = 0; i < fanout; i++) {
+			Path sub = Files.createDirectory(docs.resolve(getName("Shelf " + i
+					+ " ")));
+			directoryCount++;
+			generate(sub, 1);
+		}
+		return root;
+	}
+
+	/**
+	 * Creates a Kindle device root in a new temporary directory.
+	 * 
+	 * @return the device root.
+	 * @throws IOException
+	 */
+	public Path generate() throws IOException {
+		return generate(Files.createTempDirectory("kdxgen-library"));
+	}
+
+	/**
+	 * Deletes a directory tree, such as a generated device root.
+	 * 
+	 * @param root
+	 *            the directory to delete.
+	 * @throws IOException
+	 */
+	public static void delete(Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file,
+					BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e)
+					throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static Options options = null;
+	static {
+		options = new Options();
+		options.addOption("r", true, "Path to the device root to create.");
+		options.addOption("d", true, "Number of directory levels below the "
+				+ "documents root (default 2).");
+		options.addOption("f", true, "Number of subdirectories of every "
+				+ "directory above the leaves (default 10).");
+		options.addOption("n", true, "Number of files in every directory "
+				+ "(default 10).");
+		options.addOption("p", true, "Fraction of PDF documents; the others "
+				+ "are AZW documents (default 0.5).");
+		options.addOption("l", true, "Length of the generated names "
+				+ "(default 24).");
+		options.addOption("s", true, "Seed of the random name generator "
+				+ "(default 1).");
+	}
+
+	/**
+	 * Creates a synthetic Kindle device root.
+	 * 
+	 * <p>
+	 * <b>Usage:</b>
+	 * {@code LibraryGenerator -r <root> [-d <depth>] [-f <fanout>] [-n <files>] [-p <ratio>] [-l <length>] [-s <seed>]}
+	 * 
+	 * @param args
+	 *            the command line arguments.
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		CommandLineParser parser = new PosixParser();
+		CommandLine cmd = null;
+		try {
+			cmd = parser.parse(options, args);
+		} catch (ParseException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		if (!cmd.hasOption("r")) {
+			new HelpFormatter().printHelp("LibraryGenerator", options, true);
+			System.exit(1);
+		}
+		LibraryGenerator g = new LibraryGenerator();
+		if (cmd.hasOption("d"))
+			g.setDepth(Integer.parseInt(cmd.getOptionValue("d")));
+		if (cmd.hasOption("f"))
+			g.setFanout(Integer.parseInt(cmd.getOptionValue("f")));
+		if (cmd.hasOption("n"))
+			g.setFiles(Integer.parseInt(cmd.getOptionValue("n")));
+		if (cmd.hasOption("p"))
+			g.setPdfRatio(Double.parseDouble(cmd.getOptionValue("p")));
+		if (cmd.hasOption("l"))
+			g.setNameLength(Integer.parseInt(cmd.getOptionValue("l")));
+		if (cmd.hasOption("s"))
+			g.setSeed(Long.parseLong(cmd.getOptionValue("s")));
+		Path root = g.generate(Paths.get(cmd.getOptionValue("r")));
+		System.out.println("Created " + g.fileCount + " files in "
+				+ g.directoryCount + " directories under " + root);
+	}
+}
+// Created 16 October 2026, 8:42pm
@@ -0,0 +1,98 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks a full {@link Manager#process()} over a generated documents tree.
+ * The tree is created once per trial, so that later iterations are served from
+ * the operating system's file cache.
+ * 
+ * @author gyaikhom
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProcessBenchmark {
+	private static final Logger logger = Logger.getLogger("com.yaikhom.kdx");
+
+	@Param({ "100", "1000" })
+	public int collections;
+
+	@Param({ "1", "4" })
+	public int threads;
+
+	private static final int items = 20;
+	private Path root;
+
+	@Setup
+	public void setup() throws IOException {
+		logger.setLevel(Level.WARNING);
+		LibraryGenerator g = new LibraryGenerator();
+		g.setDepth(1);
+		g.setFanout(collections);
+		g.setFiles(items);
+		root = g.generate();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		LibraryGenerator.delete(root);
+	}
+
+	@Benchmark
+	public Manager process() throws IOException, NoSuchAlgorithmException {
+		Manager kdxm = new Manager(root.toString(), Manager.maxKDXDisplayLen,
+				threads, true);
+		kdxm.process();
+		return kdxm;
+	}
+}
+// Created 16 October 2026, 8:41pm
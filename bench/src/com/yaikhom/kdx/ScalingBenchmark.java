@@ -0,0 +1,158 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Times {@link Manager#process()} and {@link Manager#save(String)} over
+ * generated libraries of increasing size, and reports the throughput in files
+ * per second and the peak heap usage of each phase, as well as the heap
+ * retained by the collections after the scan. Throughput that falls as the
+ * library grows points to non-linear behaviour in the scan or the
+ * serialisation.
+ * 
+ * <p>
+ * <b>Usage:</b>
+ * {@code ScalingBenchmark [files[,files...]] [threads]}
+ * 
+ * <p>
+ * By default, libraries of 10k, 100k and 1M files are scanned with one
+ * thread. The libraries have three directory levels with a fan-out of ten,
+ * and the number of files per directory is chosen to match the requested
+ * total.
+ * 
+ * @author gyaikhom
+ */
+public class ScalingBenchmark {
+	private static final Logger logger = Logger.getLogger("com.yaikhom.kdx");
+
+	/**
+	 * Resets the peak usage of the heap memory pools, after a garbage
+	 * collection.
+	 */
+	private static void resetPeakHeap() {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+
+	/**
+	 * Returns the sum of the peak usage of the heap memory pools since the
+	 * last reset, in megabytes.
+	 */
+	private static double getPeakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak / (1024.0 * 1024.0);
+	}
+
+	/**
+	 * Returns the current usage of the heap after a garbage collection, in
+	 * megabytes.
+	 */
+	private static double getRetainedHeap() {
+		System.gc();
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				used += pool.getUsage().getUsed();
+		}
+		return used / (1024.0 * 1024.0);
+	}
+
+	/**
+	 * Generates a library with about the supplied number of files, and times
+	 * a scan and a save over it.
+	 */
+	private static void run(long target, int threads) throws IOException,
+			NoSuchAlgorithmException {
+		LibraryGenerator g = new LibraryGenerator();
+		g.setDepth(3);
+		g.setFanout(10);
+		g.setFiles((int) Math.max(1, target / g.countDirectories()));
+		Path root = g.generate();
+		File output = File.createTempFile("kdxgen-collections", ".json");
+		try {
+			double baseHeap = getRetainedHeap();
+			resetPeakHeap();
+			long start = System.nanoTime();
+			Manager kdxm = new Manager(root.toString(),
+					Manager.maxKDXDisplayLen, threads, true);
+			kdxm.process();
+			long scanned = System.nanoTime();
+			double scanHeap = getPeakHeap();
+			double retainedHeap = getRetainedHeap() - baseHeap;
+
+			resetPeakHeap();
+			long saving = System.nanoTime();
+			kdxm.save(output.getPath());
+			long saved = System.nanoTime();
+			double saveHeap = getPeakHeap();
+
+			long n = g.countFiles();
+			double scanSecs = (scanned - start) / 1e9;
+			double saveSecs = (saved - saving) / 1e9;
+			System.out.println(String.format(
+					"%9d %9.3f %12.0f %9.1f %9.1f %9.3f %12.0f %9.1f", n,
+					scanSecs, n / scanSecs, scanHeap, retainedHeap, saveSecs, n
+							/ saveSecs, saveHeap));
+		} finally {
+			output.delete();
+			LibraryGenerator.delete(root);
+		}
+	}
+
+	public static void main(String[] args) throws IOException,
+			NoSuchAlgorithmException {
+		logger.setLevel(Level.WARNING);
+		String sizes = (args.length > 0) ? args[0] : "10000,100000,1000000";
+		int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+		System.out.println(String.format(
+				"%9s %9s %12s %9s %9s %9s %12s %9s", "files", "scan (s)",
+				"files/s", "heap (MB)", "kept (MB)", "save (s)", "files/s",
+				"heap (MB)"));
+		for (String s : sizes.split(","))
+			run(Long.parseLong(s.trim()), threads);
+	}
+}
+// Created 16 October 2026, 8:42pm
@@ -0,0 +1,225 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+/**
+ * Encapsulates the ASIN, book type and version encoded in the name of an AZW
+ * file, such as
+ * 
+ * <p>
+ * {@code The Adventures of Sherlock Holme-asin_B000JQU1VS-type_EBOK-v_0.azw}
+ * 
+ * <p>
+ * The filename is tokenised in a single pass, by scanning for the
+ * {@code -asin_}, {@code -type_} and {@code -v_} markers; only the offsets of
+ * the tokens are kept, and the KDX collection key is built directly from them.
+ * If the filename cannot be collected, the reason is available from
+ * {@link #getRejection()}.
+ * 
+ * @author gyaikhom
+ */
+public class AsinFilename {
+	private static final String ASIN_MARKER = "-asin_";
+	private static final String TYPE_MARKER = "-type_";
+	private static final String VERSION_MARKER = "-v_";
+
+	/**
+	 * Reasons for not collecting an AZW file.
+	 */
+	public enum Rejection {
+		NO_ASIN("No ASIN found"), NO_TYPE("No book type found"), NO_VERSION(
+				"No version found"), UNSUPPORTED_TYPE("Unsupported book type");
+
+		private final String description;
+
+		Rejection(String description) {
+			this.description = description;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+	}
+
+	private final String fname;
+	private int asinStart, asinEnd;
+	private int typeStart, typeEnd;
+	private int versionStart, versionEnd;
+	private Rejection rejection;
+
+	private AsinFilename(String fname) {
+		this.fname = fname;
+	}
+
+	/**
+	 * Returns the index of a marker within {@code [from, to)}, or -1.
+	 */
+	private static int indexOf(String s, String marker, int from, int to) {
+		int i = s.indexOf(marker, from);
+		return (i == -1 || i + marker.length() > to) ? -1 : i;
+	}
+
+	/**
+	 * Tokenises an AZW filename. Only the supported book types are accepted.
+	 * 
+	 * @param fname
+	 *            the name of the file.
+	 * @return the tokens of the filename.
+	 * @see #isSupportedType(String)
+	 */
+	public static AsinFilename parse(String fname) {
+		AsinFilename n = new AsinFilename(fname);
+		int l = fname.length();
+		int a = fname.indexOf(ASIN_MARKER);
+		if (a == -1 || a + ASIN_MARKER.length() == l) {
+			n.rejection = Rejection.NO_ASIN;
+			return n;
+		}
+		n.asinStart = a + ASIN_MARKER.length();
+		int end = indexOf(fname, ASIN_MARKER, n.asinStart, l);
+		if (end == -1)
+			end = l;
+		int t = indexOf(fname, TYPE_MARKER, n.asinStart, end);
+		if (t == -1 || t + TYPE_MARKER.length() == end) {
+			n.rejection = Rejection.NO_TYPE;
+			return n;
+		}
+		n.asinEnd = t;
+		n.typeStart = t + TYPE_MARKER.length();
+		int e = indexOf(fname, TYPE_MARKER, n.typeStart, end);
+		if (e != -1)
+			end = e;
+		int v = indexOf(fname, VERSION_MARKER, n.typeStart, end);
+		if (v == -1 || v + VERSION_MARKER.length() == end) {
+			n.rejection = Rejection.NO_VERSION;
+			return n;
+		}
+		n.typeEnd = v;
+		n.versionStart = v + VERSION_MARKER.length();
+		e = indexOf(fname, VERSION_MARKER, n.versionStart, end);
+		if (e != -1)
+			end = e;
+		e = fname.lastIndexOf('.', end - 1);
+		n.versionEnd = (e >= n.versionStart) ? e : end;
+
+		if (n.typeEnd - n.typeStart != 4
+				|| !(fname.startsWith("EBOK", n.typeStart) || fname
+						.startsWith("EBSP", n.typeStart)))
+			n.rejection = Rejection.UNSUPPORTED_TYPE;
+		return n;
+	}
+
+	/**
+	 * Checks if documents of a book type are collected. Only the EBOK and EBSP
+	 * book types are, since the KDX automatically collects periodicals (NWPR).
+	 * 
+	 * @param type
+	 *            the book type.
+	 * @return true if the book type is collected; false otherwise.
+	 */
+	public static boolean isSupportedType(String type) {
+		return "EBOK".equals(type) || "EBSP".equals(type);
+	}
+
+	/**
+	 * Returns the KDX collection key of a document, {@code #ASIN^TYPE}.
+	 * 
+	 * @param asin
+	 *            the ASIN.
+	 * @param type
+	 *            the book type.
+	 * @return the key.
+	 */
+	public static String getKey(String asin, String type) {
+		return "#" + asin + "^" + type; // KDX format requires '#' prefixing.
+	}
+
+	/**
+	 * Returns the reason why the file cannot be collected.
+	 * 
+	 * @return the reason, or null if the file can be collected.
+	 */
+	public Rejection getRejection() {
+		return rejection;
+	}
+
+	/**
+	 * Checks if the filename was tokenised beyond the supplied rejection.
+	 */
+	private boolean isPast(Rejection r) {
+		return rejection == null || rejection.compareTo(r) > 0;
+	}
+
+	/**
+	 * Returns the ASIN.
+	 * 
+	 * @return the ASIN, or null if none was found.
+	 */
+	public String getAsin() {
+		return isPast(Rejection.NO_TYPE) ? fname.substring(asinStart, asinEnd)
+				: null;
+	}
+
+	/**
+	 * Returns the book type, e.g. EBOK.
+	 * 
+	 * @return the book type, or null if none was found.
+	 */
+	public String getType() {
+		return isPast(Rejection.NO_VERSION) ? fname.substring(typeStart,
+				typeEnd) : null;
+	}
+
+	/**
+	 * Returns the version, without the file extension.
+	 * 
+	 * @return the version, or null if none was found.
+	 */
+	public String getVersion() {
+		return isPast(Rejection.NO_VERSION) ? fname.substring(versionStart,
+				versionEnd) : null;
+	}
+
+	/**
+	 * Returns the KDX collection key of the document, {@code #ASIN^TYPE}.
+	 * 
+	 * @return the key, or null if the file cannot be collected.
+	 */
+	public String getKey() {
+		if (rejection != null)
+			return null;
+		int asinLen = asinEnd - asinStart, typeLen = typeEnd - typeStart;
+		char[] key = new char[asinLen + typeLen + 2];
+		key[0] = '#'; // KDX format requires '#' prefixing.
+		fname.getChars(asinStart, asinEnd, key, 1);
+		key[asinLen + 1] = '^';
+		fname.getChars(typeStart, typeEnd, key, asinLen + 2);
+		return new String(key);
+	}
+}
+// Created 16 October 2026, 8:45pm
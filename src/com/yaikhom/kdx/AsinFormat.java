@@ -0,0 +1,182 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Encapsulates a format whose documents are identified by their ASIN and book
+ * type, such as AZW files. The ASIN and type are parsed from the filename
+ * (see {@link AsinFilename}), which should have the following format:
+ * 
+ * <p>
+ * {@code The Adventures of Sherlock Holme-asin_B000JQU1VS-type_EBOK-v_0.azw}
+ * 
+ * <p>
+ * If the filename does not follow this convention, such as
+ * {@code Treasure-Island.azw}, the ASIN and type are read from the document
+ * header instead (see {@link MobiHeader}).
+ * 
+ * @author gyaikhom
+ */
+public class AsinFormat extends Format {
+	private static final Logger logger = Logger.getLogger("com.yaikhom.kdx");
+	private volatile MetadataCache cache = null;
+
+	/**
+	 * Initialises an ASIN identified format.
+	 * 
+	 * @param type
+	 *            the item type of the documents.
+	 */
+	public AsinFormat(int type) {
+		super(type);
+	}
+
+	/**
+	 * Sets the cache of the keys read from document headers, so that the
+	 * headers of unchanged documents are not read again.
+	 * 
+	 * @param cache
+	 *            the meta-data cache, or null to always read the headers.
+	 */
+	public void setMetadataCache(MetadataCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Reads the KDX collection key from the document header.
+	 * 
+	 * @param file
+	 *            the document.
+	 * @param fname
+	 *            the name of the document.
+	 * @return the key, or null if the header has no supported ASIN and type.
+	 * @throws IOException
+	 *             if the header cannot be read, or is corrupt.
+	 */
+	private String readHeaderKey(Path file, String fname) throws IOException {
+		MobiHeader h;
+		try {
+			h = MobiHeader.read(file);
+		} catch (RuntimeException e) {
+			// a corrupt document must not abort the scan
+			throw new IOException("corrupt header", e);
+		}
+		if (h == null || h.getAsin() == null || h.getAsin().length() == 0) {
+			rejected(ScanStatistics.AzwRejection.NO_HEADER_ASIN);
+			if (logger.isLoggable(Level.FINE))
+				logger.fine("No ASIN found in header of '" + fname
+						+ "'. Skipping file...");
+			return null;
+		}
+		if (!AsinFilename.isSupportedType(h.getDocumentType())) {
+			rejected(ScanStatistics.AzwRejection.UNSUPPORTED_HEADER_TYPE);
+			if (logger.isLoggable(Level.FINE))
+				logger.fine("Unsupported book type " + h.getDocumentType()
+						+ " in header of '" + fname + "'. Skipping file...");
+			return null;
+		}
+		return AsinFilename.getKey(h.getAsin(), h.getDocumentType());
+	}
+
+	/**
+	 * Returns the KDX collection key from the document header, or from the
+	 * meta-data cache if the document has not changed since it was read.
+	 * 
+	 * @param file
+	 *            the document.
+	 * @param fname
+	 *            the name of the document.
+	 * @return the key, or null if the header has no supported ASIN and type.
+	 */
+	private String readKey(Path file, String fname) {
+		MetadataCache c = cache;
+		try {
+			BasicFileAttributes attrs = null;
+			if (c != null) {
+				attrs = Files.readAttributes(file, BasicFileAttributes.class);
+				MetadataCache.Entry e = c.lookup(file, attrs);
+				if (e != null) {
+					if (e.getKey() == null) {
+						rejected(ScanStatistics.AzwRejection.NO_HEADER_ASIN);
+						if (logger.isLoggable(Level.FINE))
+							logger.fine("No supported ASIN found in cached header of '"
+									+ fname + "'. Skipping file...");
+					}
+					return e.getKey();
+				}
+			}
+			String key = readHeaderKey(file, fname);
+			if (c != null)
+				c.record(file, attrs, getType(), key);
+			return key;
+		} catch (IOException e) {
+			rejected(ScanStatistics.AzwRejection.UNREADABLE_HEADER);
+			logger.warning("Failed to read header of '" + fname + "' (" + e
+					+ "). Skipping file...");
+			return null;
+		}
+	}
+
+	/**
+	 * Counts a rejected document in the scan statistics, if collected.
+	 */
+	private void rejected(ScanStatistics.AzwRejection reason) {
+		ScanStatistics s = getStatistics();
+		if (s != null)
+			s.rejected(reason);
+	}
+
+	@Override
+	public Item process(Path file, String fname, String currentDir) {
+		AsinFilename n = AsinFilename.parse(fname);
+		AsinFilename.Rejection r = n.getRejection();
+		if (r == null)
+			return createItem(file, fname, n.getKey());
+		if (r == AsinFilename.Rejection.UNSUPPORTED_TYPE) {
+			// Periodicals are collected automatically by the KDX.
+			rejected(ScanStatistics.AzwRejection.UNSUPPORTED_TYPE);
+			if (logger.isLoggable(Level.FINE))
+				logger.fine(r.getDescription() + " in '" + fname
+						+ "'. Skipping file...");
+			return null;
+		}
+		if (logger.isLoggable(Level.FINE))
+			logger.fine(r.getDescription() + " in '" + fname
+					+ "'. Reading header...");
+		String key = readKey(file, fname);
+		return (key == null) ? null : createItem(file, fname, key);
+	}
+}
+// Created 16 October 2026, 8:44pm
@@ -0,0 +1,308 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Encapsulates a log handler that writes to a file on a background thread, so
+ * that logging does not wait for the disk. Records are queued in a fixed-size
+ * ring buffer; when the buffer is full, further records are dropped rather
+ * than blocking the scan, and the number dropped is logged once there is room
+ * again.
+ * 
+ * <p>
+ * The log file is rotated when it grows beyond a size limit: {@code file} is
+ * renamed to {@code file.1}, {@code file.1} to {@code file.2}, and so on, up
+ * to the supplied number of old files. If the file cannot be opened again
+ * afterwards, the failure is reported to the error manager, and the file is
+ * opened again for the next record.
+ * 
+ * @author gyaikhom
+ */
+public class AsyncLogHandler extends Handler {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private final File file;
+	private final long limit;
+	private final int count;
+
+	/*
+	 * Ring buffer of the records waiting to be written. The records from head
+	 * (inclusive) to tail (exclusive) are queued; the capacity is a power of
+	 * two, so that the indices wrap by masking.
+	 */
+	private final LogRecord[] ring;
+	private final int mask;
+	private long head = 0;
+	private long tail = 0;
+	private long done = 0; // records written and flushed
+	private long dropped = 0;
+	private boolean closed = false;
+
+	private final Thread writer;
+	private OutputStream out; // null if the file could not be opened
+	private long written; // bytes in the current file
+
+	/**
+	 * Initialises a handler for the supplied log file, and starts its writer
+	 * thread.
+	 * 
+	 * @param fileName
+	 *            the log file.
+	 * @param limit
+	 *            the approximate size in bytes at which the file is rotated.
+	 * @param count
+	 *            the number of old files kept.
+	 * @param capacity
+	 *            the number of records that may be queued, rounded up to a
+	 *            power of two.
+	 * @throws IOException
+	 *             if the log file could not be opened.
+	 */
+	public AsyncLogHandler(String fileName, long limit, int count,
+			int capacity) throws IOException {
+		file = new File(fileName);
+		this.limit = limit;
+		this.count = count;
+		int c = 1;
+		while (c < capacity)
+			c <<= 1;
+		ring = new LogRecord[c];
+		mask = c - 1;
+		setFormatter(new SimpleFormatter());
+		open(false);
+		writer = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "kdxgen-log");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Queues a record. The caller of the logger is resolved here, before the
+	 * record is handed over to the writer thread.
+	 */
+	@Override
+	public void publish(LogRecord record) {
+		if (!isLoggable(record))
+			return;
+		record.getSourceClassName();
+		synchronized (ring) {
+			if (closed)
+				return;
+			if (tail - head == ring.length) {
+				dropped++;
+				return;
+			}
+			ring[(int) (tail++ & mask)] = record;
+			if (tail - head == 1)
+				ring.notifyAll();
+		}
+	}
+
+	/**
+	 * Writes the queued records, until the handler is closed.
+	 */
+	private void drain() {
+		LogRecord[] batch = new LogRecord[ring.length];
+		for (;;) {
+			int n = 0;
+			long lost, end;
+			synchronized (ring) {
+				while (head == tail && !closed) {
+					try {
+						ring.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (head == tail)
+					return; // closed
+				while (head < tail) {
+					int i = (int) (head++ & mask);
+					batch[n++] = ring[i];
+					ring[i] = null;
+				}
+				end = head;
+				lost = dropped;
+				dropped = 0;
+			}
+			if (lost > 0)
+				write("Log buffer full. Dropped " + lost + " records."
+						+ System.getProperty("line.separator"));
+			for (int i = 0; i < n; i++) {
+				write(format(batch[i]));
+				batch[i] = null;
+			}
+			try {
+				if (out != null)
+					out.flush();
+			} catch (IOException e) {
+				reportError(null, e, ErrorManager.FLUSH_FAILURE);
+			}
+			synchronized (ring) {
+				done = end;
+				ring.notifyAll(); // wakes up flush()
+			}
+		}
+	}
+
+	private String format(LogRecord record) {
+		try {
+			return getFormatter().format(record);
+		} catch (RuntimeException e) {
+			reportError(null, e, ErrorManager.FORMAT_FAILURE);
+			return "";
+		}
+	}
+
+	/**
+	 * Writes a formatted record, and rotates the file if it is full. The
+	 * record is lost if the file cannot be opened.
+	 */
+	private void write(String s) {
+		if (out == null && !reopen())
+			return;
+		try {
+			byte[] b = s.getBytes(UTF8);
+			out.write(b);
+			written += b.length;
+		} catch (IOException e) {
+			reportError(null, e, ErrorManager.WRITE_FAILURE);
+			return;
+		}
+		if (written >= limit) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				reportError(null, e, ErrorManager.CLOSE_FAILURE);
+			}
+			out = null;
+			rotate();
+			reopen();
+		}
+	}
+
+	/**
+	 * Opens the log file.
+	 * 
+	 * @param append
+	 *            true to append to an existing file.
+	 */
+	private void open(boolean append) throws IOException {
+		out = new BufferedOutputStream(new FileOutputStream(file, append));
+		written = append ? file.length() : 0;
+	}
+
+	/**
+	 * Opens the log file again, to append to it.
+	 * 
+	 * @return true if the file was opened.
+	 */
+	private boolean reopen() {
+		try {
+			open(true);
+			return true;
+		} catch (IOException e) {
+			reportError("Failed to open log file '" + file + "'", e,
+					ErrorManager.OPEN_FAILURE);
+			return false;
+		}
+	}
+
+	/**
+	 * Renames the log file and the old files, discarding the oldest.
+	 */
+	private void rotate() {
+		for (int i = count; i >= 1; i--) {
+			File from = (i == 1) ? file : new File(file.getPath() + "."
+					+ (i - 1));
+			File to = new File(file.getPath() + "." + i);
+			if (from.exists()) {
+				to.delete();
+				from.renameTo(to);
+			}
+		}
+		if (count == 0)
+			file.delete();
+	}
+
+	/**
+	 * Waits until the queued records have been written.
+	 */
+	@Override
+	public void flush() {
+		synchronized (ring) {
+			long end = tail;
+			while (done < end && writer.isAlive()) {
+				try {
+					ring.wait(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the queued records, and closes the log file.
+	 */
+	@Override
+	public void close() {
+		synchronized (ring) {
+			if (closed)
+				return;
+			closed = true;
+			ring.notifyAll();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			if (out != null)
+				out.close();
+		} catch (IOException e) {
+			reportError(null, e, ErrorManager.CLOSE_FAILURE);
+		}
+	}
+}
+// Created 16 October 2026, 10:21pm
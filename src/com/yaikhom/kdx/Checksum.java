@@ -28,6 +28,7 @@
 package com.yaikhom.kdx;
 
 import java.io.UnsupportedEncodingException;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -45,8 +46,33 @@ public class Checksum {
 	 * @see Manager
 	 */
 	private static final String kdxMount = "/mnt/us/documents/";
+	private static final char[] lowercaseHex = "0123456789abcdef".toCharArray();
+	private static final char[] uppercaseHex = "0123456789ABCDEF".toCharArray();
+
+	/**
+	 * Length of a SHA1 checksum in bytes.
+	 */
+	public static final int SHA1_LENGTH = 20;
+
+	/*
+	 * Per-thread hashing state, which is reused across calls so that the
+	 * checksum of a string is calculated without intermediate allocations.
+	 */
+	private static class Engine {
+		MessageDigest md;
+		byte[] text = new byte[256]; // ISO-8859-1 encoded input
+		byte[] hash = new byte[SHA1_LENGTH];
+		char[] hex = new char[2 * SHA1_LENGTH];
+
+		Engine() throws NoSuchAlgorithmException {
+			md = MessageDigest.getInstance("SHA-1");
+		}
+	}
+
+	private static final ThreadLocal<Engine> engines = new ThreadLocal<Engine>();
+
 	private boolean uppercaseHexadecimal = false;
-	private char startChar = 'a';
+	private char[] hexChars = lowercaseHex;
 
 	/**
 	 * Does the hexadecimal string use uppercase characters?
@@ -66,7 +92,7 @@ public class Checksum {
 	 */
 	public void setUppercaseHexadecimal(boolean uppercaseHexadecimal) {
 		this.uppercaseHexadecimal = uppercaseHexadecimal;
-		startChar = uppercaseHexadecimal ? 'A' : 'a';
+		hexChars = uppercaseHexadecimal ? uppercaseHex : lowercaseHex;
 	}
 
 	/**
@@ -84,20 +110,85 @@ public class Checksum {
 	 *            {@code false}.
 	 */
 	public Checksum(boolean flag) {
-		uppercaseHexadecimal = flag;
-		startChar = uppercaseHexadecimal ? 'A' : 'a';
+		setUppercaseHexadecimal(flag);
+	}
+
+	/**
+	 * Returns the hashing state of the current thread.
+	 * 
+	 * @return the hashing state.
+	 * @throws NoSuchAlgorithmException
+	 */
+	private static Engine getEngine() throws NoSuchAlgorithmException {
+		Engine e = engines.get();
+		if (e == null) {
+			e = new Engine();
+			engines.set(e);
+		}
+		return e;
+	}
+
+	/**
+	 * Encodes a string as ISO-8859-1 into the supplied engine's buffer,
+	 * replacing unmappable characters with '?', and adds it to the digest.
+	 * 
+	 * @param e
+	 *            the hashing state.
+	 * @param text
+	 *            the string to add.
+	 */
+	private static void update(Engine e, String text) {
+		int l = text.length();
+		if (e.text.length < l)
+			e.text = new byte[Math.max(l, 2 * e.text.length)];
+		byte[] b = e.text;
+		for (int i = 0; i < l; i++) {
+			char c = text.charAt(i);
+			b[i] = (byte) (c > 0xFF ? '?' : c);
+		}
+		e.md.update(b, 0, l);
+	}
+
+	/**
+	 * Completes the digest, and returns the hash as a hexadecimal string.
+	 * 
+	 * @param e
+	 *            the hashing state.
+	 * @return the hexadecimal string.
+	 * @throws NoSuchAlgorithmException
+	 */
+	private String finish(Engine e) throws NoSuchAlgorithmException {
+		try {
+			e.md.digest(e.hash, 0, SHA1_LENGTH);
+		} catch (DigestException ex) {
+			throw new NoSuchAlgorithmException(ex);
+		}
+		return new String(toHex(e.hash, 0, SHA1_LENGTH, e.hex), 0,
+				2 * SHA1_LENGTH);
 	}
 
 	/**
-	 * Returns the hex character of a half byte.
+	 * Converts a byte sequence to hexadecimal characters.
 	 * 
-	 * @param hb
-	 *            the half-byte, where (0xFFF0 & hb) is 0x0000.
-	 * @return the hexadecimal character, one of ('0'..'9', or 'a', 'b', 'c',
-	 *         'd', 'e', 'f').
+	 * @param data
+	 *            the array of bytes to be converted.
+	 * @param off
+	 *            the offset of the first byte.
+	 * @param len
+	 *            the number of bytes.
+	 * @param hex
+	 *            the array to write the characters to, which must hold at
+	 *            least {@code 2 * len} characters.
+	 * @return the array of hexadecimal characters.
 	 */
-	private char getHex(int hb) {
-		return (char) (hb > 9 ? startChar + (hb - 10) : '0' + hb);
+	public char[] toHex(byte[] data, int off, int len, char[] hex) {
+		char[] t = hexChars;
+		for (int i = 0, j = 0; i < len; i++) {
+			int b = data[off + i];
+			hex[j++] = t[(b >>> 4) & 0x0F];
+			hex[j++] = t[b & 0x0F];
+		}
+		return hex;
 	}
 
 	/**
@@ -107,21 +198,54 @@ public class Checksum {
 	 *            the array of bytes to be converted.
 	 * @return the string of hexadecimal characters.
 	 */
-	private String convertToHex(byte[] data) {
-		StringBuffer buf = new StringBuffer();
-		for (int i = 0; i < data.length; i++) {
-			int lhb, rhb; // left and right half bytes
-			lhb = (data[i] >>> 4) & 0x000F;
-			rhb = data[i] & 0x000F;
-			buf.append(getHex(lhb));
-			buf.append(getHex(rhb));
+	public String toHex(byte[] data) {
+		return new String(toHex(data, 0, data.length, new char[2 * data.length]));
+	}
+
+	/**
+	 * Calculates the SHA1 checksum of a byte sequence. This is safe to call
+	 * from several threads at once.
+	 * 
+	 * @param data
+	 *            the array of bytes to process.
+	 * @param off
+	 *            the offset of the first byte.
+	 * @param len
+	 *            the number of bytes.
+	 * @param hash
+	 *            the array to write the checksum to, at offset {@code hashOff}.
+	 * @param hashOff
+	 *            the offset in {@code hash}.
+	 * @throws NoSuchAlgorithmException
+	 */
+	public void getSHA1(byte[] data, int off, int len, byte[] hash,
+			int hashOff) throws NoSuchAlgorithmException {
+		Engine e = getEngine();
+		e.md.update(data, off, len);
+		try {
+			e.md.digest(hash, hashOff, SHA1_LENGTH);
+		} catch (DigestException ex) {
+			throw new NoSuchAlgorithmException(ex);
 		}
-		return buf.toString();
+	}
+
+	/**
+	 * Calculates the SHA1 checksum of a byte sequence.
+	 * 
+	 * @param data
+	 *            the array of bytes to process.
+	 * @return the SHA1 checksum.
+	 * @throws NoSuchAlgorithmException
+	 */
+	public byte[] getSHA1(byte[] data) throws NoSuchAlgorithmException {
+		byte[] hash = new byte[SHA1_LENGTH];
+		getSHA1(data, 0, data.length, hash, 0);
+		return hash;
 	}
 
 	/**
 	 * Calculates the SHA1 checksum of a string, and returns the value as a
-	 * hexadecimal string.
+	 * hexadecimal string. The string is encoded as ISO-8859-1.
 	 * 
 	 * @param text
 	 *            the string of characters to process.
@@ -133,11 +257,9 @@ public class Checksum {
 			UnsupportedEncodingException {
 		String hexhash = null;
 		if (text != null && text.length() > 0) {
-			MessageDigest md = MessageDigest.getInstance("SHA-1");
-			byte[] sha1hash = new byte[40];
-			md.update(text.getBytes("iso-8859-1"), 0, text.length());
-			sha1hash = md.digest();
-			hexhash = convertToHex(sha1hash);
+			Engine e = getEngine();
+			update(e, text);
+			hexhash = finish(e);
 		}
 		return hexhash;
 	}
@@ -158,10 +280,30 @@ public class Checksum {
 	 */
 	public String getKDXFilenameHash(String fname)
 			throws NoSuchAlgorithmException, UnsupportedEncodingException {
-		StringBuffer buf = new StringBuffer();
-		buf.append(kdxMount); // KDX hashing assumes this virtual mount point
-		buf.append(fname);
-		return getSHA1(buf.toString());
+		return getKDXFilenameHash("", fname);
+	}
+
+	/**
+	 * Calculates the SHA1 checksum of the file path, as
+	 * {@link #getKDXFilenameHash(String)} does for {@code dir + fname}, without
+	 * concatenating the strings.
+	 * 
+	 * @param dir
+	 *            the directory relative to the documents root, with a trailing
+	 *            '/'.
+	 * @param fname
+	 *            the name of the file.
+	 * @return the SHA1 checksum as a hexadecimal string.
+	 * @throws UnsupportedEncodingException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public String getKDXFilenameHash(String dir, String fname)
+			throws NoSuchAlgorithmException, UnsupportedEncodingException {
+		Engine e = getEngine();
+		update(e, kdxMount); // KDX hashing assumes this virtual mount point
+		update(e, dir);
+		update(e, fname);
+		return finish(e);
 	}
 }
 // Created 24 October 2010, 7:40pm
\ No newline at end of file
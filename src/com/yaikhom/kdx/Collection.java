@@ -28,29 +28,56 @@
 package com.yaikhom.kdx;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.swing.tree.DefaultMutableTreeNode;
-
 /**
  * Encapsulates a KDX collection.
  * 
+ * <p>
+ * The items are not retained as {@link Item} objects, since these dominate the
+ * heap for large libraries. Instead, they are packed into primitive arrays:
+ * the names are stored as UTF-8 bytes, the SHA1 keys of path identified
+ * documents as their 20 bytes, and other keys as UTF-8 bytes. The directory
+ * of an item is a reference to the shared {@link DirectoryTrie.Node} of the
+ * directory. The {@link Item} objects are only materialised on demand.
+ * 
  * @author gyaikhom
  */
 public class Collection {
 	private static final Logger logger = Logger.getLogger("com.yaikhom.kdx");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte KEY_SHA1 = 0; // '*' and 20 bytes, in hex
+	private static final byte KEY_TEXT = 1; // UTF-8 bytes
 	private String name;
+	private String locale = "en-US";
 	private Long lastAccess;
-	private List<Item> items;
+	private boolean imported = false;
+
+	/*
+	 * Packed items. The name and key of item i are stored in the heaps from
+	 * the end of item i - 1 (or 0) to nameEnds[i] and keyEnds[i]. The first
+	 * byte of every key is its encoding.
+	 */
+	private int size = 0;
+	private DirectoryTrie.Node[] dirs = new DirectoryTrie.Node[4];
+	private byte[] types = new byte[4];
+	private int[] nameEnds = new int[4];
+	private int[] keyEnds = new int[4];
+	private byte[] names = new byte[64];
+	private byte[] keys = new byte[64];
 
 	public Collection() throws SecurityException, IOException {
 		name = new String();
 		lastAccess = (new Date()).getTime() / 1000;
-		items = new ArrayList<Item>();
 	}
 
 	public String getName() {
@@ -61,6 +88,36 @@ public class Collection {
 		this.name = name;
 	}
 
+	/**
+	 * Returns the locale of the collection name, which the KDX appends to the
+	 * name after an '@'.
+	 * 
+	 * @return the locale, or null if the name has none.
+	 */
+	public String getLocale() {
+		return locale;
+	}
+
+	public void setLocale(String locale) {
+		this.locale = locale;
+	}
+
+	/**
+	 * Was the collection read from an existing collections file, rather than
+	 * generated from the documents tree? Such collections are written even if
+	 * they are empty, since they may have been created on the device.
+	 * 
+	 * @return true if the collection was read; false if generated.
+	 * @see Manager#merge(String)
+	 */
+	public boolean isImported() {
+		return imported;
+	}
+
+	public void setImported(boolean imported) {
+		this.imported = imported;
+	}
+
 	public Long getLastAccess() {
 		return lastAccess;
 	}
@@ -72,43 +129,428 @@ public class Collection {
 		this.lastAccess = lastAccess;
 	}
 
+	/**
+	 * Returns the number of items in the collection.
+	 * 
+	 * @return the number of items.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the name of an item.
+	 * 
+	 * @param i
+	 *            the index of the item.
+	 * @return the name of the item.
+	 */
+	public String getItemName(int i) {
+		int start = (i == 0) ? 0 : nameEnds[i - 1];
+		return new String(names, start, nameEnds[i] - start, UTF8);
+	}
+
+	/**
+	 * Returns the KDX collection key of an item.
+	 * 
+	 * @param i
+	 *            the index of the item.
+	 * @return the key of the item.
+	 */
+	public String getItemKey(int i) {
+		int start = (i == 0) ? 0 : keyEnds[i - 1];
+		if (keys[start] == KEY_SHA1)
+			return new String(toHex(start + 1));
+		return new String(keys, start + 1, keyEnds[i] - start - 1, UTF8);
+	}
+
+	/**
+	 * Returns the directory of an item.
+	 * 
+	 * @param i
+	 *            the index of the item.
+	 * @return the directory, or null if it is unknown.
+	 */
+	public DirectoryTrie.Node getItemDirectory(int i) {
+		return dirs[i];
+	}
+
+	/**
+	 * Materialises an item.
+	 * 
+	 * @param i
+	 *            the index of the item.
+	 * @return the item.
+	 */
+	public Item getItem(int i) {
+		Item item = new Item();
+		item.setName(getItemName(i));
+		item.setType(types[i]);
+		item.setKey(getItemKey(i));
+		if (dirs[i] != null)
+			item.setPath(dirs[i].getDirectory().resolve(item.getName())
+					.toString());
+		return item;
+	}
+
+	/**
+	 * Materialises all of the items. Changes to the returned list do not
+	 * affect the collection.
+	 * 
+	 * @return the items.
+	 */
 	public List<Item> getItems() {
+		ArrayList<Item> items = new ArrayList<Item>(size);
+		for (int i = 0; i < size; i++)
+			items.add(getItem(i));
 		return items;
 	}
 
-	public DefaultMutableTreeNode getCollectionNode() {
-		DefaultMutableTreeNode t, n = new DefaultMutableTreeNode(name);
-		Iterator<Item> i = items.iterator();
-		if (i.hasNext()) {
-			Item item = i.next();
-			t = new DefaultMutableTreeNode(item.getName());
-			n.add(t);
-			while (i.hasNext()) {
-				item = i.next();
-				t = new DefaultMutableTreeNode(item.getName());
-				n.add(t);
+	/**
+	 * Converts a packed SHA1 key to its string form, {@code '*'} followed by
+	 * the checksum in hexadecimal.
+	 */
+	private char[] toHex(int off) {
+		char[] hex = new char[1 + 2 * Checksum.SHA1_LENGTH];
+		hex[0] = '*';
+		for (int i = 0, j = 1; i < Checksum.SHA1_LENGTH; i++) {
+			int b = keys[off + i];
+			hex[j++] = HEX[(b >>> 4) & 0x0F];
+			hex[j++] = HEX[b & 0x0F];
+		}
+		return hex;
+	}
+
+	/**
+	 * Returns the value of a lowercase hexadecimal digit, or -1.
+	 */
+	private static int hexValue(char c) {
+		if (c >= '0' && c <= '9')
+			return c - '0';
+		if (c >= 'a' && c <= 'f')
+			return c - 'a' + 10;
+		return -1;
+	}
+
+	/**
+	 * Returns a byte array of at least the required length, which holds the
+	 * bytes of the supplied array.
+	 */
+	private static byte[] reserve(byte[] a, int required) {
+		if (required <= a.length)
+			return a;
+		return Arrays.copyOf(a, Math.max(required, a.length + (a.length >> 1)));
+	}
+
+	/**
+	 * Packs the key of an item at the end of the key heap.
+	 */
+	private int packKey(String key, int start) {
+		int l = key.length();
+		if (l == 1 + 2 * Checksum.SHA1_LENGTH && key.charAt(0) == '*') {
+			keys = reserve(keys, start + 1 + Checksum.SHA1_LENGTH);
+			int i = 1, j = start + 1;
+			for (; i < l; i += 2) {
+				int hi = hexValue(key.charAt(i));
+				int lo = hexValue(key.charAt(i + 1));
+				if (hi < 0 || lo < 0)
+					break;
+				keys[j++] = (byte) ((hi << 4) | lo);
 			}
+			if (i == l) {
+				keys[start] = KEY_SHA1;
+				return j;
+			}
+		}
+		byte[] b = key.getBytes(UTF8);
+		keys = reserve(keys, start + 1 + b.length);
+		keys[start] = KEY_TEXT;
+		System.arraycopy(b, 0, keys, start + 1, b.length);
+		return start + 1 + b.length;
+	}
+
+	/**
+	 * Adds an item found in the supplied directory. Only the name, type and
+	 * key of the item are retained; its path is given by the directory.
+	 * 
+	 * @param dir
+	 *            the directory that contains the item, or null if unknown.
+	 * @param item
+	 *            the item to add.
+	 * @return the number of items in the collection.
+	 */
+	public int addItem(DirectoryTrie.Node dir, Item item) {
+		if (size == dirs.length) {
+			int capacity = size + (size >> 1) + 1;
+			dirs = Arrays.copyOf(dirs, capacity);
+			types = Arrays.copyOf(types, capacity);
+			nameEnds = Arrays.copyOf(nameEnds, capacity);
+			keyEnds = Arrays.copyOf(keyEnds, capacity);
 		}
-		return n;
+		int nameStart = (size == 0) ? 0 : nameEnds[size - 1];
+		byte[] b = item.getName().getBytes(UTF8);
+		names = reserve(names, nameStart + b.length);
+		System.arraycopy(b, 0, names, nameStart, b.length);
+		dirs[size] = dir;
+		types[size] = (byte) item.getFileType();
+		nameEnds[size] = nameStart + b.length;
+		keyEnds[size] = packKey(item.getKey(), (size == 0) ? 0
+				: keyEnds[size - 1]);
+		return ++size;
 	}
-	
-	public void setItems(List<Item> items) {
-		this.items = items;
+
+	/**
+	 * Adds items found in the supplied directory.
+	 * 
+	 * @param dir
+	 *            the directory that contains the items, or null if unknown.
+	 * @param items
+	 *            the items to add, in order.
+	 * @return the number of items in the collection.
+	 * @see #addItem(DirectoryTrie.Node, Item)
+	 */
+	public int addItems(DirectoryTrie.Node dir, List<Item> items) {
+		for (Item item : items)
+			addItem(dir, item);
+		return size;
 	}
 
+	/**
+	 * Adds an item whose directory is unknown, so that the path of the
+	 * materialised item is null.
+	 * 
+	 * @param item
+	 *            the item to add.
+	 * @return the number of items in the collection.
+	 */
 	public int addItem(Item item) {
-		items.add(item);
-		return items.size();
+		return addItem(null, item);
+	}
+
+	/**
+	 * Adds an item of which only the key is known, such as an item of a
+	 * collection read from the device.
+	 * 
+	 * @param key
+	 *            the KDX collection key of the item.
+	 * @return the number of items in the collection.
+	 */
+	public int addKey(String key) {
+		Item item = new Item();
+		item.setName("");
+		item.setKey(key);
+		return addItem(null, item);
+	}
+
+	/**
+	 * Returns the index of an item.
+	 * 
+	 * @param dir
+	 *            the directory that contains the item.
+	 * @param name
+	 *            the name of the item.
+	 * @return the index of the item, or -1 if it is not in the collection.
+	 */
+	public int indexOf(DirectoryTrie.Node dir, String name) {
+		byte[] b = name.getBytes(UTF8);
+		for (int i = 0, start = 0; i < size; start = nameEnds[i++]) {
+			if (dirs[i] == dir && nameEquals(start, nameEnds[i], b))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares the name stored between the supplied offsets with a name.
+	 */
+	private boolean nameEquals(int start, int end, byte[] b) {
+		if (end - start != b.length)
+			return false;
+		for (int k = 0; k < b.length; k++) {
+			if (names[start + k] != b[k])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the items in a directory. If a name is supplied, only the item
+	 * with that name is removed. Otherwise, every item in the directory, or
+	 * in any of its subdirectories, is removed.
+	 * 
+	 * @param dir
+	 *            the directory.
+	 * @param name
+	 *            the name of the item to remove, or null.
+	 * @return the number of items in the collection.
+	 */
+	public int removeItems(DirectoryTrie.Node dir, String name) {
+		byte[] b = (name == null) ? null : name.getBytes(UTF8);
+		int j = 0, nameEnd = 0, keyEnd = 0;
+		for (int i = 0, nameStart = 0, keyStart = 0; i < size; i++) {
+			boolean remove = (b == null) ? (dirs[i] != null && dirs[i]
+					.isWithin(dir)) : (dirs[i] == dir && nameEquals(nameStart,
+					nameEnds[i], b));
+			if (!remove) {
+				int l = nameEnds[i] - nameStart;
+				System.arraycopy(names, nameStart, names, nameEnd, l);
+				nameEnd += l;
+				l = keyEnds[i] - keyStart;
+				System.arraycopy(keys, keyStart, keys, keyEnd, l);
+				keyEnd += l;
+				dirs[j] = dirs[i];
+				types[j] = types[i];
+				nameEnds[j] = nameEnd;
+				keyEnds[j] = keyEnd;
+				j++;
+			}
+			nameStart = nameEnds[i];
+			keyStart = keyEnds[i];
+		}
+		Arrays.fill(dirs, j, size, null);
+		size = j;
+		return size;
+	}
+
+	/**
+	 * Sorts the items by name, in the supplied order, and items of the same
+	 * name by key. Items known only by their key, such as those of an imported
+	 * collection, are sorted by key.
+	 * 
+	 * @param order
+	 *            the order of names.
+	 */
+	public void sortItems(NaturalOrder order) {
+		if (size < 2)
+			return;
+		String[] itemNames = new String[size];
+		String[] itemKeys = new String[size];
+		for (int i = 0; i < size; i++) {
+			int start = (i == 0) ? 0 : nameEnds[i - 1];
+			itemKeys[i] = getItemKey(i);
+			itemNames[i] = (nameEnds[i] == start) ? itemKeys[i]
+					: getItemName(i);
+		}
+		int[] sorted = order.sort(itemNames, itemKeys, null);
+		DirectoryTrie.Node[] d = new DirectoryTrie.Node[dirs.length];
+		byte[] t = new byte[types.length];
+		int[] ne = new int[nameEnds.length];
+		int[] ke = new int[keyEnds.length];
+		byte[] n = new byte[names.length];
+		byte[] k = new byte[keys.length];
+		int nameEnd = 0, keyEnd = 0;
+		for (int i = 0; i < size; i++) {
+			int j = sorted[i];
+			int start = (j == 0) ? 0 : nameEnds[j - 1];
+			System.arraycopy(names, start, n, nameEnd, nameEnds[j] - start);
+			nameEnd += nameEnds[j] - start;
+			start = (j == 0) ? 0 : keyEnds[j - 1];
+			System.arraycopy(keys, start, k, keyEnd, keyEnds[j] - start);
+			keyEnd += keyEnds[j] - start;
+			d[i] = dirs[j];
+			t[i] = types[j];
+			ne[i] = nameEnd;
+			ke[i] = keyEnd;
+		}
+		dirs = d;
+		types = t;
+		nameEnds = ne;
+		keyEnds = ke;
+		names = n;
+		keys = k;
+	}
+
+	/**
+	 * Releases the unused capacity of the packed items.
+	 */
+	public void trimToSize() {
+		if (dirs.length > size) {
+			dirs = Arrays.copyOf(dirs, size);
+			types = Arrays.copyOf(types, size);
+			nameEnds = Arrays.copyOf(nameEnds, size);
+			keyEnds = Arrays.copyOf(keyEnds, size);
+		}
+		int l = (size == 0) ? 0 : nameEnds[size - 1];
+		if (names.length > l)
+			names = Arrays.copyOf(names, l);
+		l = (size == 0) ? 0 : keyEnds[size - 1];
+		if (keys.length > l)
+			keys = Arrays.copyOf(keys, l);
 	}
 
-	public int removeItem(Item item) {
-		items.remove(item);
-		return items.size();
+	/**
+	 * Writes the key of an item as a JSON string literal.
+	 */
+	private void writeKey(Writer out, int i) throws IOException {
+		int start = (i == 0) ? 0 : keyEnds[i - 1];
+		if (keys[start] == KEY_SHA1) {
+			out.write('"');
+			out.write(toHex(start + 1));
+			out.write('"');
+		} else {
+			writeString(out, new String(keys, start + 1, keyEnds[i] - start
+					- 1, UTF8));
+		}
+	}
+
+	/**
+	 * Writes a string as a JSON string literal. Quotation marks, reverse
+	 * solidi and control characters are escaped, and so is the solidus, as
+	 * the KDX collections.json file does.
+	 * 
+	 * @param out
+	 *            the writer to write to.
+	 * @param s
+	 *            the string to write.
+	 * @throws IOException
+	 */
+	static void writeString(Writer out, String s) throws IOException {
+		out.write('"');
+		int start = 0, l = s.length();
+		for (int i = 0; i < l; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\' && c != '/')
+				continue;
+			out.write(s, start, i - start);
+			start = i + 1;
+			switch (c) {
+			case '"':
+				out.write("\\\"");
+				break;
+			case '\\':
+				out.write("\\\\");
+				break;
+			case '/':
+				out.write("\\/");
+				break;
+			case '\b':
+				out.write("\\b");
+				break;
+			case '\f':
+				out.write("\\f");
+				break;
+			case '\n':
+				out.write("\\n");
+				break;
+			case '\r':
+				out.write("\\r");
+				break;
+			case '\t':
+				out.write("\\t");
+				break;
+			default:
+				out.write("\\u00");
+				out.write(HEX[c >>> 4]);
+				out.write(HEX[c & 0x0F]);
+			}
+		}
+		out.write(s, start, l - start);
+		out.write('"');
 	}
 
 	/**
-	 * This returns the collection as a JSON string, in a format required by the
-	 * KDX collections.json file. E.g.,
+	 * This writes the collection as JSON, in a format required by the KDX
+	 * collections.json file. E.g.,
 	 * 
 	 * <p>
 	 * {@code "Hello World@en-US": "items":["Item1", "Item2", ...],
@@ -122,28 +564,50 @@ public class Collection {
 	 * <p>
 	 * {@code /mnt/us/}
 	 * 
-	 * @return a JSON string.
+	 * <p>
+	 * Nothing is written for an empty collection, unless it was imported.
+	 * 
+	 * @param out
+	 *            the writer to write to.
+	 * @return true if the collection was written; false if it is empty.
+	 * @throws IOException
 	 * @see Manager#processFile
 	 */
-	@Override
-	public String toString() {
-		logger.info("Printing collection '" + name + "' ...");
-		StringBuffer buf = new StringBuffer();
-		if (items.size() > 0) {
-			buf.append("\"" + name.replace("/", "\\/")
-					+ "@en-US\":{\"items\":[");
-			Iterator<Item> i = items.iterator();
-			if (i.hasNext()) {
-				Item item = i.next();
-				buf.append("\"" + item.getKey() + "\"");
-				while (i.hasNext()) {
-					item = i.next();
-					buf.append(",\"" + item.getKey() + "\"");
-				}
-				buf.append("],\"lastAccess\":" + lastAccess + "}");
+	public boolean write(Writer out) throws IOException {
+		if (size > 0 || imported) {
+			if (logger.isLoggable(Level.FINE))
+				logger.fine("Printing collection '" + name + "' ...");
+			writeString(out, (locale == null) ? name : name + "@" + locale);
+			out.write(":{\"items\":[");
+			for (int i = 0; i < size; i++) {
+				if (i > 0)
+					out.write(',');
+				writeKey(out, i);
 			}
+			out.write("],\"lastAccess\":");
+			out.write(Long.toString(lastAccess));
+			out.write('}');
+			return true;
 		} else {
-			logger.info("Skipping empty collection '" + name + "' ...");
+			if (logger.isLoggable(Level.FINE))
+				logger.fine("Skipping empty collection '" + name + "' ...");
+			return false;
+		}
+	}
+
+	/**
+	 * This returns the collection as a JSON string.
+	 * 
+	 * @return a JSON string.
+	 * @see #write(Writer)
+	 */
+	@Override
+	public String toString() {
+		StringWriter buf = new StringWriter();
+		try {
+			write(buf);
+		} catch (IOException e) {
+			// StringWriter does not throw
 		}
 		return buf.toString();
 	}
@@ -0,0 +1,308 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the collections of Kindle devices over HTTP. A client requests the
+ * collections of a device root with {@code GET /collections?root=<path>}, or
+ * with {@code POST /collections} with the path as the request body, and
+ * receives the collections as JSON, as written to the collections.json file.
+ * 
+ * <p>
+ * The collections of the {@link #MAX_DEVICES} most recently requested device
+ * roots are kept, and are only scanned again once a directory of its
+ * documents tree has been modified (see {@link Manager#isUpToDate()}); the
+ * scans are then incremental. Concurrent requests for the same device root
+ * wait for a single scan. Since any client may request any path, the
+ * collections of the least recently requested device are dropped beyond
+ * that number, so that the memory used stays bounded.
+ * 
+ * @author gyaikhom
+ */
+public class CollectionServer implements HttpHandler {
+	private static final Logger logger = Logger.getLogger("com.yaikhom.kdx");
+
+	/**
+	 * Path of the collections resource.
+	 */
+	public static final String CONTEXT = "/collections";
+
+	/**
+	 * Maximum number of device roots whose collections are kept.
+	 */
+	public static final int MAX_DEVICES = 16;
+
+	/**
+	 * The collections of a device root, which are scanned by one request at
+	 * a time, and may be written by several requests at once.
+	 */
+	private static class Device {
+		final Manager manager;
+		final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+		Device(Manager manager) {
+			this.manager = manager;
+		}
+	}
+
+	/*
+	 * Devices in the order of their last request. Requests being handled
+	 * keep using a device that has been dropped.
+	 */
+	private final LinkedHashMap<String, Device> devices = new LinkedHashMap<String, Device>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Device> eldest) {
+			return size() > MAX_DEVICES;
+		}
+	};
+	private final MetadataCache metadataCache;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	/**
+	 * Creates a server on the loopback interface.
+	 * 
+	 * @param port
+	 *            the port to listen on.
+	 * @param threads
+	 *            the number of requests handled at once.
+	 * @param metadataCache
+	 *            the meta-data cache shared by every device, or null.
+	 * @throws IOException
+	 */
+	public CollectionServer(int port, int threads, MetadataCache metadataCache)
+			throws IOException {
+		this.metadataCache = metadataCache;
+		server = HttpServer.create(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext(CONTEXT, this);
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+	}
+
+	/**
+	 * Creates the collection manager for a device root. Override this to
+	 * configure the manager, e.g., with further formats.
+	 * 
+	 * @param root
+	 *            the path to the Kindle device root.
+	 * @return the manager.
+	 * @throws IOException
+	 */
+	protected Manager createManager(String root) throws IOException {
+		return new Manager(root, false);
+	}
+
+	/**
+	 * Starts serving requests in the background.
+	 */
+	public void start() {
+		server.start();
+		logger.info("Serving collections at http://"
+				+ server.getAddress().getHostString() + ":"
+				+ server.getAddress().getPort() + CONTEXT + " ...");
+	}
+
+	/**
+	 * Stops serving requests, once the requests being handled are done.
+	 * 
+	 * @param delay
+	 *            the maximum time to wait, in seconds.
+	 */
+	public void stop(int delay) {
+		server.stop(delay);
+		executor.shutdown();
+	}
+
+	/**
+	 * Returns the collection manager of a device root, creating it if this is
+	 * the first request for the device, or if it has been dropped since.
+	 */
+	private Device getDevice(String root) throws IOException {
+		synchronized (devices) {
+			Device d = devices.get(root);
+			if (d == null) {
+				Manager kdxm = createManager(root);
+				kdxm.getStatistics().setDevice(root);
+				if (metadataCache != null)
+					kdxm.setMetadataCache(metadataCache);
+				kdxm.setRetainManifest(true);
+				devices.put(root, d = new Device(kdxm));
+			}
+			return d;
+		}
+	}
+
+	/**
+	 * Drops the collection manager of a device root, unless it has been
+	 * replaced.
+	 */
+	private void removeDevice(String root, Device d) {
+		synchronized (devices) {
+			if (devices.get(root) == d)
+				devices.remove(root);
+		}
+	}
+
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			String root;
+			if ("GET".equals(method)) {
+				root = getParameter(exchange.getRequestURI().getRawQuery(),
+						"root");
+			} else if ("POST".equals(method)) {
+				root = readBody(exchange.getRequestBody()).trim();
+			} else {
+				exchange.getResponseHeaders().set("Allow", "GET, POST");
+				sendError(exchange, 405, "Method not allowed");
+				return;
+			}
+			if (root == null || root.length() == 0) {
+				sendError(exchange, 400, "No device root");
+				return;
+			}
+			root = new File(root).getAbsoluteFile().toPath().normalize()
+					.toString();
+			Device d = getDevice(root);
+
+			/*
+			 * A stale device is scanned under the write lock, so that the
+			 * other requests for it wait for the scan, and then find the
+			 * device up to date.
+			 */
+			d.lock.readLock().lock();
+			try {
+				if (!d.manager.isUpToDate()) {
+					d.lock.readLock().unlock();
+					d.lock.writeLock().lock();
+					try {
+						if (!d.manager.isUpToDate() && !d.manager.process()) {
+							removeDevice(root, d);
+							sendError(exchange, 404, "Not a Kindle device root");
+							return;
+						}
+						d.lock.readLock().lock();
+					} finally {
+						d.lock.writeLock().unlock();
+					}
+				}
+				exchange.getResponseHeaders().set("Content-Type",
+						"application/json; charset=UTF-8");
+				exchange.sendResponseHeaders(200, 0);
+				Writer out = new OutputStreamWriter(exchange.getResponseBody(),
+						"UTF-8");
+				d.manager.write(out);
+				out.close();
+			} finally {
+				if (d.lock.getReadHoldCount() > 0)
+					d.lock.readLock().unlock();
+			}
+		} catch (IOException e) {
+			logger.warning("Failed to serve " + exchange.getRequestURI()
+					+ " (" + e + ").");
+			sendError(exchange, 500, e.toString());
+		} catch (NoSuchAlgorithmException e) {
+			logger.severe("Failed to scan (" + e + ").");
+			sendError(exchange, 500, e.toString());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Returns the decoded value of a query parameter, or null if absent.
+	 */
+	private static String getParameter(String query, String name)
+			throws UnsupportedEncodingException {
+		if (query == null)
+			return null;
+		for (String param : query.split("&")) {
+			int i = param.indexOf('=');
+			if (i > 0 && param.substring(0, i).equals(name))
+				return URLDecoder.decode(param.substring(i + 1), "UTF-8");
+		}
+		return null;
+	}
+
+	private static String readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		byte[] b = new byte[1024];
+		int n;
+		while ((n = in.read(b)) != -1)
+			buf.write(b, 0, n);
+		return buf.toString("UTF-8");
+	}
+
+	/**
+	 * Sends an error, unless the response has already been started.
+	 */
+	private static void sendError(HttpExchange exchange, int code,
+			String message) {
+		if (exchange.getResponseCode() != -1)
+			return;
+		try {
+			byte[] body = (message + "\n").getBytes("UTF-8");
+			exchange.getResponseHeaders().set("Content-Type",
+					"text/plain; charset=UTF-8");
+			exchange.sendResponseHeaders(code, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		} catch (IOException e) {
+			logger.fine("Failed to send error (" + e + ").");
+		}
+	}
+}
+// Created 16 October 2026, 10:25pm
@@ -0,0 +1,202 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.util.List;
+
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+/**
+ * A tree model of the collections and their items, which is backed directly by
+ * the collections. Nodes are only created for the rows that the tree asks for,
+ * i.e., the items of a collection are not visited until it is expanded.
+ * 
+ * <p>
+ * The model is a snapshot of the collections at the time it was created, and
+ * does not report subsequent changes. It may be restricted to some of the
+ * items of each collection, e.g., to show the results of a search.
+ * 
+ * @author gyaikhom
+ * @see Manager#getCollectionTree()
+ */
+public class CollectionTreeModel implements TreeModel {
+	private final String root;
+	private final CollectionNode[] children;
+	private final EventListenerList listeners = new EventListenerList();
+
+	/*
+	 * A collection in the tree.
+	 */
+	private static class CollectionNode {
+		final Collection collection;
+		final int[] items; // indices of the items shown, or null for all
+		final int size; // items shown
+
+		CollectionNode(Collection collection, int[] items) {
+			this.collection = collection;
+			this.items = items;
+			this.size = (items == null) ? collection.size() : items.length;
+		}
+
+		/**
+		 * Returns the index in the collection of the item shown at the
+		 * supplied position.
+		 */
+		int item(int index) {
+			return (items == null) ? index : items[index];
+		}
+
+		@Override
+		public String toString() {
+			return collection.getName();
+		}
+	}
+
+	/*
+	 * An item of a collection, which is created on demand. Item nodes are
+	 * equal if they refer to the same item.
+	 */
+	private static class ItemNode {
+		final CollectionNode parent;
+		final int index;
+
+		ItemNode(CollectionNode parent, int index) {
+			this.parent = parent;
+			this.index = index;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof ItemNode))
+				return false;
+			ItemNode n = (ItemNode) o;
+			return n.parent == parent && n.index == index;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(parent) + index;
+		}
+
+		@Override
+		public String toString() {
+			int i = parent.item(index);
+			String name = parent.collection.getItemName(i);
+			if (name.length() == 0) // only the key is known
+				return parent.collection.getItemKey(i);
+			return name;
+		}
+	}
+
+	/**
+	 * Initialises a tree model of the supplied collections.
+	 * 
+	 * @param root
+	 *            the label of the root node.
+	 * @param collections
+	 *            the collections, in display order.
+	 */
+	public CollectionTreeModel(String root, List<Collection> collections) {
+		this(root, collections, null);
+	}
+
+	/**
+	 * Initialises a tree model of some of the items of the supplied
+	 * collections.
+	 * 
+	 * @param root
+	 *            the label of the root node.
+	 * @param collections
+	 *            the collections, in display order.
+	 * @param items
+	 *            the indices of the items to show for each collection, in
+	 *            display order, or null for all of the items. An element may
+	 *            also be null to show all of the items of that collection.
+	 */
+	public CollectionTreeModel(String root, List<Collection> collections,
+			List<int[]> items) {
+		this.root = root;
+		children = new CollectionNode[collections.size()];
+		for (int i = 0; i < children.length; i++)
+			children[i] = new CollectionNode(collections.get(i),
+					(items == null) ? null : items.get(i));
+	}
+
+	public Object getRoot() {
+		return root;
+	}
+
+	public Object getChild(Object parent, int index) {
+		if (parent == root)
+			return children[index];
+		return new ItemNode((CollectionNode) parent, index);
+	}
+
+	public int getChildCount(Object parent) {
+		if (parent == root)
+			return children.length;
+		if (parent instanceof CollectionNode)
+			return ((CollectionNode) parent).size;
+		return 0;
+	}
+
+	public boolean isLeaf(Object node) {
+		return node instanceof ItemNode;
+	}
+
+	public int getIndexOfChild(Object parent, Object child) {
+		if (parent == root) {
+			for (int i = 0; i < children.length; i++)
+				if (children[i] == child)
+					return i;
+		} else if (child instanceof ItemNode) {
+			ItemNode n = (ItemNode) child;
+			if (n.parent == parent)
+				return n.index;
+		}
+		return -1;
+	}
+
+	/**
+	 * The model is read-only, so that this does nothing.
+	 */
+	public void valueForPathChanged(TreePath path, Object newValue) {
+	}
+
+	public void addTreeModelListener(TreeModelListener l) {
+		listeners.add(TreeModelListener.class, l);
+	}
+
+	public void removeTreeModelListener(TreeModelListener l) {
+		listeners.remove(TreeModelListener.class, l);
+	}
+}
+// Created 16 October 2026, 10:16pm
@@ -0,0 +1,376 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a KDX collections.json file one collection at a time, without building
+ * a document tree. The file has the following format:
+ * 
+ * <p>
+ * {@code {"Name@en-US":{"items":["Key1", ...],"lastAccess":1234567890}, ...}}
+ * 
+ * <p>
+ * Only the items and the last access time of a collection are retained; any
+ * other member is skipped. Each character is examined once, so that reading is
+ * linear in the size of the file.
+ * 
+ * @author gyaikhom
+ */
+public class CollectionsReader {
+	private static final int EOF = -1;
+
+	private final Reader in;
+	private final char[] buf = new char[8192];
+	private int pos = 0;
+	private int limit = 0;
+	private long offset = 0; // of buf[0] in the file
+	private boolean started = false;
+	private boolean finished = false;
+	private final StringBuilder text = new StringBuilder();
+
+	private String name;
+	private Long lastAccess;
+	private final ArrayList<String> items = new ArrayList<String>();
+
+	/**
+	 * Initialises a reader for the supplied collections file.
+	 * 
+	 * @param in
+	 *            the reader of the file contents.
+	 */
+	public CollectionsReader(Reader in) {
+		this.in = in;
+	}
+
+	/**
+	 * Returns the name of the current collection, including the locale
+	 * suffix, e.g., {@code "Alpha/Fruits@en-US"}.
+	 * 
+	 * @return the name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the last access time of the current collection.
+	 * 
+	 * @return the last access time, or null if it is not given.
+	 */
+	public Long getLastAccess() {
+		return lastAccess;
+	}
+
+	/**
+	 * Returns the item keys of the current collection. The list is reused by
+	 * the next call to {@link #next()}.
+	 * 
+	 * @return the item keys.
+	 */
+	public List<String> getItems() {
+		return items;
+	}
+
+	/**
+	 * Reads the next collection.
+	 * 
+	 * @return true if a collection was read; false at the end of the file.
+	 * @throws IOException
+	 *             if the file could not be read, or is malformed.
+	 */
+	public boolean next() throws IOException {
+		if (finished)
+			return false;
+		int c;
+		if (!started) {
+			started = true;
+			expect('{');
+			c = peekToken();
+			if (c == '}') {
+				pos++;
+				finished = true;
+				return false;
+			}
+		} else {
+			c = readToken();
+			if (c == '}') {
+				finished = true;
+				return false;
+			}
+			if (c != ',')
+				throw error("',' or '}'");
+		}
+		name = readString();
+		expect(':');
+		readCollection();
+		return true;
+	}
+
+	/**
+	 * Reads the members of a collection.
+	 */
+	private void readCollection() throws IOException {
+		lastAccess = null;
+		items.clear();
+		expect('{');
+		if (peekToken() == '}') {
+			pos++;
+			return;
+		}
+		int c;
+		do {
+			String member = readString();
+			expect(':');
+			if ("items".equals(member) && peekToken() == '[') {
+				readItems();
+			} else if ("lastAccess".equals(member) && isNumberStart(peekToken())) {
+				lastAccess = readNumber();
+			} else {
+				skipValue();
+			}
+			c = readToken();
+		} while (c == ',');
+		if (c != '}')
+			throw error("',' or '}'");
+	}
+
+	/**
+	 * Reads the array of item keys. Values other than strings are skipped.
+	 */
+	private void readItems() throws IOException {
+		expect('[');
+		if (peekToken() == ']') {
+			pos++;
+			return;
+		}
+		int c;
+		do {
+			if (peekToken() == '"')
+				items.add(readString());
+			else
+				skipValue();
+			c = readToken();
+		} while (c == ',');
+		if (c != ']')
+			throw error("',' or ']'");
+	}
+
+	/**
+	 * Skips a value of any type. Nested arrays and objects are skipped by
+	 * counting the brackets, without recursion.
+	 */
+	private void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			int c = peekToken();
+			switch (c) {
+			case '"':
+				readString();
+				break;
+			case '{':
+			case '[':
+				pos++;
+				depth++;
+				break;
+			case '}':
+			case ']':
+				if (depth == 0)
+					throw error("a value");
+				pos++;
+				depth--;
+				break;
+			case ',':
+			case ':':
+				if (depth == 0)
+					throw error("a value");
+				pos++;
+				break;
+			case EOF:
+				throw error("a value");
+			default:
+				if (!isLiteral(c))
+					throw error("a value");
+				while (isLiteral(peek()))
+					pos++;
+			}
+		} while (depth > 0);
+	}
+
+	private static boolean isNumberStart(int c) {
+		return c == '-' || (c >= '0' && c <= '9');
+	}
+
+	/**
+	 * Checks if a character may be part of a number, true, false or null.
+	 */
+	private static boolean isLiteral(int c) {
+		return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || c == '-'
+				|| c == '+' || c == '.' || c == 'E';
+	}
+
+	/**
+	 * Reads an integer. A fraction or exponent is read, but ignored.
+	 */
+	private long readNumber() throws IOException {
+		peekToken();
+		boolean negative = false;
+		if (peek() == '-') {
+			negative = true;
+			pos++;
+		}
+		long value = 0;
+		int digits = 0;
+		int c;
+		while ((c = peek()) >= '0' && c <= '9') {
+			value = 10 * value + (c - '0');
+			digits++;
+			pos++;
+		}
+		if (digits == 0)
+			throw error("a number");
+		while (isLiteral(peek()))
+			pos++;
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Reads a string literal, and decodes its escape sequences.
+	 */
+	private String readString() throws IOException {
+		expect('"');
+		text.setLength(0);
+		for (;;) {
+			int start = pos;
+			while (pos < limit && buf[pos] != '"' && buf[pos] != '\\')
+				pos++;
+			text.append(buf, start, pos - start);
+			int c = peek();
+			if (c == EOF)
+				throw error("'\"'");
+			if (c != '"' && c != '\\')
+				continue; // the buffer was refilled
+			pos++;
+			if (c == '"')
+				return text.toString();
+			if (c == '\\') {
+				c = peek();
+				pos++;
+				switch (c) {
+				case 'b':
+					text.append('\b');
+					break;
+				case 'f':
+					text.append('\f');
+					break;
+				case 'n':
+					text.append('\n');
+					break;
+				case 'r':
+					text.append('\r');
+					break;
+				case 't':
+					text.append('\t');
+					break;
+				case 'u':
+					int u = 0;
+					for (int i = 0; i < 4; i++) {
+						int d = Character.digit(peek(), 16);
+						if (d < 0)
+							throw error("a hexadecimal digit");
+						u = (u << 4) | d;
+						pos++;
+					}
+					text.append((char) u);
+					break;
+				case '"':
+				case '\\':
+				case '/':
+					text.append((char) c);
+					break;
+				default:
+					throw error("an escape sequence");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Skips whitespace, and consumes the expected character.
+	 */
+	private void expect(char expected) throws IOException {
+		if (readToken() != expected)
+			throw error("'" + expected + "'");
+	}
+
+	/**
+	 * Skips whitespace, and consumes the next character.
+	 */
+	private int readToken() throws IOException {
+		int c = peekToken();
+		if (c != EOF)
+			pos++;
+		return c;
+	}
+
+	/**
+	 * Skips whitespace, and returns the next character without consuming it.
+	 */
+	private int peekToken() throws IOException {
+		int c;
+		while ((c = peek()) == ' ' || c == '\n' || c == '\r' || c == '\t')
+			pos++;
+		return c;
+	}
+
+	/**
+	 * Returns the next character without consuming it.
+	 */
+	private int peek() throws IOException {
+		if (pos == limit) {
+			offset += limit;
+			pos = 0;
+			limit = in.read(buf, 0, buf.length);
+			if (limit <= 0) {
+				limit = 0;
+				return EOF;
+			}
+		}
+		return buf[pos];
+	}
+
+	private IOException error(String expected) {
+		return new IOException("Malformed collections file: expected "
+				+ expected + " at offset " + (offset + pos));
+	}
+}
+// Created 16 October 2026, 10:14pm
@@ -0,0 +1,339 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Maps the directories under the {@code documents/} directory to their
+ * collections. Every directory is a node of the trie, whose collection is
+ * determined once, when the first item in the directory is added, instead of
+ * for every item.
+ * 
+ * <p>
+ * The collection of a directory is named after its path relative to the
+ * documents root, without the trailing '/'. Paths longer than the maximum
+ * collection name length are truncated, and marked with "...". Directories
+ * whose truncated names are equal are merged into a single collection, as
+ * follows:
+ * 
+ * <ul>
+ * <li>A directory inside a truncated directory is always merged into the
+ * collection of that directory, since both paths share the truncated prefix.
+ * </li>
+ * <li>A truncated directory inside a directory which is not truncated is
+ * merged with any other such directory, anywhere in the tree, whose truncated
+ * name is the same.</li>
+ * </ul>
+ * 
+ * <p>
+ * Names that are not truncated are shorter than those that are, so a
+ * truncated directory is never merged with one that is not.
+ * 
+ * @author gyaikhom
+ */
+public class DirectoryTrie {
+	private static final Logger logger = Logger.getLogger("com.yaikhom.kdx");
+
+	/**
+	 * Encapsulates a directory in the trie.
+	 */
+	public static class Node {
+		private final Node parent;
+		private final String path;
+		private Path directory; // resolved lazily, except for the root
+		private HashMap<String, Node> children = null;
+		private Collection collection = null;
+		private boolean truncated = false; // true if its name was shortened
+
+		private Node(Node parent, String path) {
+			this.parent = parent;
+			this.path = path;
+		}
+
+		/**
+		 * Returns the path of the directory relative to the documents root,
+		 * with a trailing '/', or an empty string for the documents root.
+		 * 
+		 * @return the relative path.
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * Returns the directory.
+		 * 
+		 * @return the path of the directory.
+		 */
+		public Path getDirectory() {
+			if (directory == null)
+				directory = parent.getDirectory().resolve(
+						path.substring(parent.path.length(), path.length() - 1));
+			return directory;
+		}
+
+		/**
+		 * Checks if this directory is the supplied directory, or one of its
+		 * subdirectories.
+		 * 
+		 * @param ancestor
+		 *            the directory.
+		 * @return true if this directory is inside the supplied directory;
+		 *         false otherwise.
+		 */
+		public boolean isWithin(Node ancestor) {
+			for (Node n = this; n != null; n = n.parent) {
+				if (n == ancestor)
+					return true;
+			}
+			return false;
+		}
+	}
+
+	private final Node root = new Node(null, "");
+	private final Map<String, Collection> collections;
+	private final int maxlen;
+	private int truncatedNames = 0; // directories with shortened names
+
+	/**
+	 * Initialises an empty trie.
+	 * 
+	 * @param collections
+	 *            the collections by name, to which new collections are added.
+	 * @param maxlen
+	 *            the maximum length of a collection name.
+	 * @param documentsRoot
+	 *            the documents root directory.
+	 */
+	public DirectoryTrie(Map<String, Collection> collections, int maxlen,
+			Path documentsRoot) {
+		this.collections = collections;
+		this.maxlen = maxlen;
+		root.directory = documentsRoot;
+	}
+
+	/**
+	 * Returns the node of the documents root.
+	 * 
+	 * @return the root node.
+	 */
+	public Node getRoot() {
+		return root;
+	}
+
+	/**
+	 * Returns the node of a subdirectory, creating it if it does not exist.
+	 * 
+	 * @param parent
+	 *            the node of the parent directory.
+	 * @param name
+	 *            the name of the subdirectory.
+	 * @return the node of the subdirectory.
+	 */
+	public Node getChild(Node parent, String name) {
+		if (parent.children == null)
+			parent.children = new HashMap<String, Node>();
+		Node n = parent.children.get(name);
+		if (n == null) {
+			n = new Node(parent, parent.path + name + '/');
+			parent.children.put(name, n);
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the node of a directory, creating it if it does not exist.
+	 * 
+	 * @param basepath
+	 *            the path of the directory relative to the documents root,
+	 *            with a trailing '/', or an empty string for the root.
+	 * @return the node of the directory.
+	 */
+	public Node getNode(String basepath) {
+		return getNode(basepath, true);
+	}
+
+	/**
+	 * Returns the node of a directory, if it exists.
+	 * 
+	 * @param basepath
+	 *            the path of the directory relative to the documents root,
+	 *            with a trailing '/', or an empty string for the root.
+	 * @return the node of the directory, or null if it does not exist.
+	 */
+	public Node findNode(String basepath) {
+		return getNode(basepath, false);
+	}
+
+	/**
+	 * Returns the node of a directory, which is created on request.
+	 */
+	private Node getNode(String basepath, boolean create) {
+		Node n = root;
+		int start = 0, l = basepath.length();
+		while (n != null && start < l) {
+			int end = basepath.indexOf('/', start);
+			if (end == -1)
+				end = l;
+			if (end > start) {
+				String name = basepath.substring(start, end);
+				if (create)
+					n = getChild(n, name);
+				else
+					n = (n.children == null) ? null : n.children.get(name);
+			}
+			start = end + 1;
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the collection of a directory, creating it if it does not exist.
+	 * 
+	 * @param n
+	 *            the node of the directory, other than the root.
+	 * @return the collection.
+	 * @throws IOException
+	 * @throws SecurityException
+	 */
+	public Collection getCollection(Node n) throws SecurityException,
+			IOException {
+		if (n.collection == null) {
+			int l = n.path.length();
+			if (l <= maxlen) {
+				n.collection = getCollection(n.path.substring(0, l - 1));
+			} else if (n.parent.path.length() > maxlen) {
+				n.collection = getCollection(n.parent);
+			} else {
+				String name = n.path.substring(0, maxlen - 3) + "...";
+				n.truncated = true;
+				truncatedNames++;
+				if (logger.isLoggable(Level.FINE))
+					logger.fine("Collection name too long. Shortening to '"
+							+ name + "' ...");
+				n.collection = getCollection(name);
+			}
+		}
+		return n.collection;
+	}
+
+	/**
+	 * Returns the collection of a directory, if it has been determined.
+	 * 
+	 * @param n
+	 *            the node of the directory.
+	 * @return the collection, or null if no item of the directory has been
+	 *         added.
+	 */
+	public Collection findCollection(Node n) {
+		return n.collection;
+	}
+
+	/**
+	 * Adds the collections of a directory, and of all of its subdirectories,
+	 * to a set. Only the collections already determined are added.
+	 * 
+	 * @param n
+	 *            the node of the directory.
+	 * @param result
+	 *            the set to add the collections to.
+	 */
+	public void findCollections(Node n, Set<Collection> result) {
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		stack.push(n);
+		while (!stack.isEmpty()) {
+			n = stack.pop();
+			if (n.collection != null)
+				result.add(n.collection);
+			if (n.children != null)
+				stack.addAll(n.children.values());
+		}
+	}
+
+	/**
+	 * Returns the number of directories whose collection names were too long,
+	 * and have been shortened.
+	 * 
+	 * @return the number of directories.
+	 */
+	public int getTruncatedNames() {
+		return truncatedNames;
+	}
+
+	/**
+	 * Forgets the directories of the supplied collections, so that their
+	 * collections are determined again. This must be called after collections
+	 * are removed. The other directories keep their collections, and are
+	 * still counted if their names were shortened.
+	 * 
+	 * @param removed
+	 *            the collections that have been removed.
+	 */
+	public void forgetCollections(Set<Collection> removed) {
+		if (removed.isEmpty())
+			return;
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Node n = stack.pop();
+			if (n.collection != null && removed.contains(n.collection)) {
+				n.collection = null;
+				if (n.truncated) {
+					n.truncated = false;
+					truncatedNames--;
+				}
+			}
+			if (n.children != null)
+				stack.addAll(n.children.values());
+		}
+	}
+
+	/**
+	 * Returns the collection with the supplied name, creating it if it does
+	 * not exist.
+	 */
+	private Collection getCollection(String name) throws SecurityException,
+			IOException {
+		Collection c = collections.get(name);
+		if (c == null) {
+			c = new Collection();
+			c.setName(name);
+			collections.put(name, c);
+		}
+		return c;
+	}
+}
+// Created 16 October 2026, 8:51pm
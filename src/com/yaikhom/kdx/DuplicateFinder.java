@@ -0,0 +1,272 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Finds documents with identical contents, e.g., copies of the same book in
+ * several directories. The documents are added while the documents tree is
+ * scanned, with the size that was read for the scan, and are compared in
+ * three steps, so that most documents are never read:
+ * 
+ * <ol>
+ * <li>documents are grouped by size, and documents of a unique size are
+ * dropped;</li>
+ * <li>the remaining documents are grouped by a hash of their first and last
+ * {@value #SAMPLE_SIZE} bytes, which are memory-mapped;</li>
+ * <li>only the documents that still share a group, and that are larger than
+ * the sampled bytes, are grouped by a hash of their whole contents.</li>
+ * </ol>
+ * 
+ * @author gyaikhom
+ * @see Manager#setFindDuplicates(boolean)
+ */
+public class DuplicateFinder {
+	private static final Logger logger = Logger.getLogger("com.yaikhom.kdx");
+
+	/**
+	 * Number of bytes sampled at the head, and at the tail, of a document.
+	 */
+	public static final int SAMPLE_SIZE = 64 * 1024;
+
+	/*
+	 * Largest region mapped at once when hashing a whole document.
+	 */
+	private static final long MAP_SIZE = 64L * 1024 * 1024;
+
+	private final HashMap<Long, ArrayList<Path>> bySize = new HashMap<Long, ArrayList<Path>>();
+	private final ArrayList<List<Path>> duplicates = new ArrayList<List<Path>>();
+	private final ArrayList<Long> sizes = new ArrayList<Long>();
+	private final Checksum checksum = new Checksum();
+	private MessageDigest md;
+
+	/**
+	 * Adds a document. This may be called by several scanning threads at
+	 * once.
+	 * 
+	 * @param file
+	 *            the document.
+	 * @param size
+	 *            the size of the document in bytes.
+	 */
+	public synchronized void add(Path file, long size) {
+		if (size == 0)
+			return; // empty files are not books
+		ArrayList<Path> group = bySize.get(size);
+		if (group == null)
+			bySize.put(size, group = new ArrayList<Path>(1));
+		group.add(file);
+	}
+
+	/**
+	 * Removes all of the documents, and the duplicates found.
+	 */
+	public synchronized void clear() {
+		bySize.clear();
+		duplicates.clear();
+		sizes.clear();
+	}
+
+	/**
+	 * Finds the duplicates among the documents added. The documents that can
+	 * no longer be read are skipped.
+	 * 
+	 * @throws NoSuchAlgorithmException
+	 */
+	public synchronized void find() throws NoSuchAlgorithmException {
+		long start = System.nanoTime();
+		if (md == null)
+			md = MessageDigest.getInstance("SHA-1");
+		duplicates.clear();
+		sizes.clear();
+		int sampled = 0, hashed = 0;
+		for (Map.Entry<Long, ArrayList<Path>> e : bySize.entrySet()) {
+			ArrayList<Path> group = e.getValue();
+			if (group.size() < 2)
+				continue;
+			long size = e.getKey();
+			sampled += group.size();
+			for (List<Path> g : groupByHash(group, size, true)) {
+				if (size <= 2L * SAMPLE_SIZE) {
+					add(g, size); // the sample was the whole document
+				} else {
+					hashed += g.size();
+					for (List<Path> h : groupByHash(g, size, false))
+						add(h, size);
+				}
+			}
+		}
+		sort();
+		logger.info("Found " + duplicates.size() + " groups of duplicates, "
+				+ "sampling " + sampled + " and hashing " + hashed
+				+ " documents in " + (System.nanoTime() - start) / 1000000L
+				+ " ms ...");
+	}
+
+	private void add(List<Path> group, long size) {
+		duplicates.add(group);
+		sizes.add(size);
+	}
+
+	/**
+	 * Orders the duplicates by path, so that the report does not depend on
+	 * the order in which the documents were scanned.
+	 */
+	private void sort() {
+		final ArrayList<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < duplicates.size(); i++) {
+			Collections.sort(duplicates.get(i));
+			order.add(i);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return duplicates.get(a).get(0).compareTo(
+						duplicates.get(b).get(0));
+			}
+		});
+		ArrayList<List<Path>> d = new ArrayList<List<Path>>();
+		ArrayList<Long> s = new ArrayList<Long>();
+		for (int i : order) {
+			d.add(duplicates.get(i));
+			s.add(sizes.get(i));
+		}
+		duplicates.clear();
+		duplicates.addAll(d);
+		sizes.clear();
+		sizes.addAll(s);
+	}
+
+	/**
+	 * Groups documents of the same size by the hash of their contents, and
+	 * returns the groups of more than one document.
+	 */
+	private List<List<Path>> groupByHash(List<Path> files, long size,
+			boolean sample) {
+		HashMap<String, List<Path>> byHash = new HashMap<String, List<Path>>();
+		for (Path p : files) {
+			String hash;
+			try {
+				hash = hash(p, size, sample);
+			} catch (IOException e) {
+				logger.warning("Failed to read '" + p + "' (" + e
+						+ "). Skipping file...");
+				continue;
+			}
+			List<Path> group = byHash.get(hash);
+			if (group == null)
+				byHash.put(hash, group = new ArrayList<Path>(2));
+			group.add(p);
+		}
+		ArrayList<List<Path>> groups = new ArrayList<List<Path>>();
+		for (List<Path> group : byHash.values())
+			if (group.size() > 1)
+				groups.add(group);
+		return groups;
+	}
+
+	/**
+	 * Hashes the first and last {@value #SAMPLE_SIZE} bytes of a document, or
+	 * all of it.
+	 */
+	private String hash(Path file, long size, boolean sample)
+			throws IOException {
+		FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			if (ch.size() != size)
+				throw new IOException("file changed during scan");
+			md.reset();
+			if (!sample) {
+				for (long pos = 0; pos < size; pos += MAP_SIZE)
+					md.update(map(ch, pos, Math.min(MAP_SIZE, size - pos)));
+			} else if (size <= 2L * SAMPLE_SIZE) {
+				md.update(map(ch, 0, size));
+			} else {
+				md.update(map(ch, 0, SAMPLE_SIZE));
+				md.update(map(ch, size - SAMPLE_SIZE, SAMPLE_SIZE));
+			}
+			return checksum.toHex(md.digest());
+		} finally {
+			ch.close();
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel ch, long pos, long len)
+			throws IOException {
+		return ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+	}
+
+	/**
+	 * Returns the duplicates found, as groups of documents with identical
+	 * contents, ordered by path.
+	 * 
+	 * @return the groups of duplicates.
+	 */
+	public synchronized List<List<Path>> getDuplicates() {
+		return new ArrayList<List<Path>>(duplicates);
+	}
+
+	/**
+	 * Returns a summary of the duplicates found, with one line per document,
+	 * and the space taken by the redundant copies.
+	 * 
+	 * @return the summary.
+	 */
+	public synchronized String report() {
+		String nl = System.getProperty("line.separator");
+		StringBuilder b = new StringBuilder();
+		long files = 0, redundant = 0;
+		for (int i = 0; i < duplicates.size(); i++) {
+			List<Path> group = duplicates.get(i);
+			files += group.size();
+			redundant += (group.size() - 1) * sizes.get(i);
+			b.append(group.size()).append(" copies of ").append(sizes.get(i))
+					.append(" bytes:").append(nl);
+			for (Path p : group)
+				b.append("  ").append(p).append(nl);
+		}
+		b.append("Duplicates:             ").append(duplicates.size())
+				.append(" groups, ").append(files).append(" files, ")
+				.append(redundant).append(" bytes redundant").append(nl);
+		return b.toString();
+	}
+}
+// Created 16 October 2026, 10:26pm
@@ -0,0 +1,125 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Encapsulates a document format handler, which creates the collection item
+ * for a file of that format. Handlers are registered by file extension with a
+ * {@link FormatRegistry}, and must be safe to call from several scanning
+ * threads at once.
+ * 
+ * @author gyaikhom
+ * @see Manager#getFormats()
+ */
+public abstract class Format {
+	private int type;
+	private volatile ScanStatistics statistics = null;
+
+	/**
+	 * Initialises a format handler.
+	 * 
+	 * @param type
+	 *            the item type of the documents, one of the {@link Item}
+	 *            constants.
+	 */
+	protected Format(int type) {
+		this.type = type;
+	}
+
+	/**
+	 * Returns the item type of the documents handled.
+	 * 
+	 * @return the item type.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the statistics of the current scan.
+	 * 
+	 * @return the statistics, or null if they are not collected.
+	 */
+	protected ScanStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Sets the statistics that documents of this format are counted in.
+	 * 
+	 * @param statistics
+	 *            the scan statistics, or null to not count documents.
+	 * @see FormatRegistry#setStatistics(ScanStatistics)
+	 */
+	public void setStatistics(ScanStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Creates a collection item of this format.
+	 * 
+	 * @param file
+	 *            the file.
+	 * @param fname
+	 *            the name of the file.
+	 * @param key
+	 *            the KDX collection key of the document.
+	 * @return the item.
+	 */
+	protected Item createItem(Path file, String fname, String key) {
+		Item item = new Item();
+		item.setType(type);
+		item.setName(fname);
+		item.setPath(file.toString());
+		item.setKey(key);
+		return item;
+	}
+
+	/**
+	 * This processes a file for inclusion in the KDX collection.
+	 * 
+	 * @param file
+	 *            the file to process.
+	 * @param fname
+	 *            the name of the file.
+	 * @param currentDir
+	 *            the directory that contains the file, relative to the
+	 *            documents root, with a trailing '/'.
+	 * @return the item representing the document within the collection, or
+	 *         null if the document cannot be collected.
+	 * @throws NoSuchAlgorithmException
+	 * @throws UnsupportedEncodingException
+	 */
+	public abstract Item process(Path file, String fname, String currentDir)
+			throws NoSuchAlgorithmException, UnsupportedEncodingException;
+}
+// Created 16 October 2026, 8:44pm
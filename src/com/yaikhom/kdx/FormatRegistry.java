@@ -0,0 +1,213 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.util.Locale;
+
+/**
+ * Encapsulates a table of document format handlers, keyed by file extension.
+ * We assume that the extension is the text after the last dot '.' of the
+ * filename, and compare extensions case-insensitively.
+ * 
+ * <p>
+ * Lookups are lock-free and do not allocate: the table is an open addressing
+ * hash table, which is hashed and compared in place over the filename.
+ * Registering a handler replaces the table, so handlers may be registered
+ * while a scan is in progress.
+ * 
+ * @author gyaikhom
+ */
+public class FormatRegistry {
+	/*
+	 * An immutable open addressing hash table. The capacity is a power of two,
+	 * and at most half of the slots are used.
+	 */
+	private static class Table {
+		final String[] extensions;
+		final Format[] formats;
+		final int size;
+
+		Table(int capacity, int size) {
+			extensions = new String[capacity];
+			formats = new Format[capacity];
+			this.size = size;
+		}
+	}
+
+	private volatile Table table = new Table(16, 0);
+	private ScanStatistics statistics = null;
+
+	/**
+	 * Initialises an empty format registry.
+	 */
+	public FormatRegistry() {
+	}
+
+	/**
+	 * Creates a format registry with the formats supported by default: PDF
+	 * documents, and AZW documents named according to the ASIN convention.
+	 * 
+	 * @return the format registry.
+	 */
+	public static FormatRegistry createDefault() {
+		FormatRegistry r = new FormatRegistry();
+		r.register("pdf", new PathHashFormat(Item.PDF_FILE));
+		r.register("azw", new AsinFormat(Item.AZW_FILE));
+		r.register("azw1", new AsinFormat(Item.AZW1_FILE));
+		return r;
+	}
+
+	/**
+	 * Returns the case-insensitive hash of a region of a string.
+	 */
+	private static int hash(String s, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++)
+			h = 31 * h + Character.toLowerCase(s.charAt(i));
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Inserts a handler in a table, which must have a free slot.
+	 */
+	private static void insert(Table t, String ext, Format format) {
+		int mask = t.extensions.length - 1;
+		int i = hash(ext, 0, ext.length()) & mask;
+		while (t.extensions[i] != null && !t.extensions[i].equals(ext))
+			i = (i + 1) & mask;
+		t.extensions[i] = ext;
+		t.formats[i] = format;
+	}
+
+	/**
+	 * Registers a handler for a file extension, replacing any handler already
+	 * registered for it.
+	 * 
+	 * @param ext
+	 *            the file extension, without the dot.
+	 * @param format
+	 *            the format handler, or null to remove the handler.
+	 */
+	public synchronized void register(String ext, Format format) {
+		ext = ext.toLowerCase(Locale.ENGLISH);
+		Table old = table;
+		int size = 0;
+		for (int i = 0; i < old.extensions.length; i++) {
+			if (old.extensions[i] != null && old.formats[i] != null
+					&& !old.extensions[i].equals(ext))
+				size++;
+		}
+		if (format != null)
+			size++;
+		int capacity = 16;
+		while (capacity < 2 * size)
+			capacity <<= 1;
+		Table t = new Table(capacity, size);
+		for (int i = 0; i < old.extensions.length; i++) {
+			if (old.extensions[i] != null && old.formats[i] != null
+					&& !old.extensions[i].equals(ext))
+				insert(t, old.extensions[i], old.formats[i]);
+		}
+		if (format != null) {
+			if (statistics != null)
+				format.setStatistics(statistics);
+			insert(t, ext, format);
+		}
+		table = t;
+	}
+
+	/**
+	 * Sets the statistics that documents are counted in, for the handlers
+	 * registered now and later.
+	 * 
+	 * @param statistics
+	 *            the scan statistics.
+	 */
+	public synchronized void setStatistics(ScanStatistics statistics) {
+		this.statistics = statistics;
+		Table t = table;
+		for (int i = 0; i < t.formats.length; i++)
+			if (t.formats[i] != null)
+				t.formats[i].setStatistics(statistics);
+	}
+
+	/**
+	 * Returns the handler for a file extension.
+	 * 
+	 * @param ext
+	 *            the file extension, without the dot.
+	 * @return the format handler, or null if none is registered.
+	 */
+	public Format get(String ext) {
+		return find(table, ext, 0, ext.length());
+	}
+
+	/**
+	 * Returns the handler for the extension of a filename. If there is no '.'
+	 * in the filename, no handler is returned.
+	 * 
+	 * @param fname
+	 *            the name of the file.
+	 * @return the format handler, or null if the file is not a supported
+	 *         document.
+	 */
+	public Format lookup(String fname) {
+		int dot = fname.lastIndexOf('.');
+		if (dot == -1)
+			return null;
+		return find(table, fname, dot + 1, fname.length());
+	}
+
+	/**
+	 * Looks up the region of a string in a table.
+	 */
+	private static Format find(Table t, String s, int start, int end) {
+		if (t.size == 0)
+			return null;
+		int len = end - start;
+		int mask = t.extensions.length - 1;
+		int i = hash(s, start, end) & mask;
+		String e;
+		while ((e = t.extensions[i]) != null) {
+			if (e.length() == len && s.regionMatches(true, start, e, 0, len))
+				return t.formats[i];
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of extensions registered.
+	 * 
+	 * @return the number of extensions.
+	 */
+	public int size() {
+		return table.size;
+	}
+}
+// Created 16 October 2026, 8:44pm
@@ -27,16 +27,25 @@
 
 package com.yaikhom.kdx;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.security.NoSuchAlgorithmException;
-import java.util.logging.FileHandler;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
@@ -48,6 +57,7 @@ import org.apache.commons.cli.PosixParser;
  */
 public class Generator {
 	private static final Logger logger = Logger.getLogger("com.yaikhom.kdx");
+	private static final long logFileLimit = 4 << 20; // rotated at 4 MB
 
 	private void showHelp() {
 		StringBuffer footer = new StringBuffer();
@@ -73,11 +83,17 @@ public class Generator {
 	 * @throws SecurityException
 	 */
 	public Generator() throws SecurityException, IOException {
-		FileHandler logFileHandler = new FileHandler("%t/kdxgen.log", false);
-		SimpleFormatter logFileFormatter = new SimpleFormatter();
-		logFileHandler.setFormatter(logFileFormatter);
+		final AsyncLogHandler logFileHandler = new AsyncLogHandler(new File(
+				System.getProperty("java.io.tmpdir"), "kdxgen.log").getPath(),
+				logFileLimit, 1, 4096);
 		logger.addHandler(logFileHandler);
-		logger.setLevel(Level.ALL);
+		logger.setLevel(Level.INFO);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				logFileHandler.close();
+			}
+		});
 	}
 
 	private static final String REQ_KDX_ROOT = "d";
@@ -85,12 +101,37 @@ public class Generator {
 	private static final String OPT_OUTPUT_FILE = "o";
 	private static final String OPT_MAXLEN = "l";
 	private static final String OPT_VERBOSE = "v";
+	private static final String OPT_THREADS = "j";
+	private static final String OPT_INCREMENTAL = "i";
+	private static final String OPT_WATCH = "w";
+	private static final String OPT_EXTENSIONS = "e";
+	private static final String OPT_NO_CACHE = "n";
+	private static final String OPT_MERGE = "m";
+	private static final String OPT_STATS = "s";
+	private static final String OPT_DEVICE_LIST = "b";
+	private static final String OPT_PARALLEL_DEVICES = "p";
+	private static final String OPT_SERVE = "serve";
+	private static final String OPT_DUPLICATES = "duplicates";
+
+	/**
+	 * Default number of devices processed in parallel in batch mode.
+	 */
+	private static final int defaultParallelDevices = 4;
+
+	/**
+	 * Output file, relative to the device root, when there are several
+	 * devices.
+	 */
+	private static final String deviceOutputFile = "system/collections.json";
 	private static Options options = null;
 	static {
 		options = new Options();
 		options.addOption(REQ_KDX_ROOT, true, "Path to Kindle device root. "
 				+ "This must point to the root directory "
-				+ "of the Kindle device.");
+				+ "of the Kindle device. This may be repeated to process "
+				+ "several devices, whose collections are then saved to "
+				+ "'system/collections.json' on each device, or to the "
+				+ "output file relative to each device root.");
 		options.addOption(OPT_CLI, false, "By default, graphical user "
 				+ "interface (GUI) is use. Use this to turn off GUI.");
 		options.addOption(OPT_OUTPUT_FILE, true, "Send result to output "
@@ -102,14 +143,70 @@ public class Generator {
 				+ "to fit within the specified length. By default, this value "
 				+ "is set to " + Manager.maxKDXDisplayLen + " characters.");
 		options.addOption(OPT_VERBOSE, false, "Display log information on "
-				+ "console. By default, log information is directed to "
+				+ "console, including every file that was skipped. By "
+				+ "default, only the main events are logged, to the "
 				+ "'/tmp/kdxgen.log' file only.");
+		options.addOption(OPT_THREADS, true, "The number of threads used for "
+				+ "scanning the documents tree. The generated collections are "
+				+ "identical to those of a single-threaded scan. By default, "
+				+ "a single thread is used.");
+		options.addOption(OPT_INCREMENTAL, false, "Scan incrementally. A "
+				+ "manifest of the scan is saved next to the output file, and "
+				+ "subsequent scans only list the directories that have "
+				+ "changed since. This requires an output file.");
+		options.addOption(OPT_WATCH, true, "Keep running, and update the "
+				+ "output file as documents are created, modified, deleted or "
+				+ "renamed. Changes are batched, and the output file is "
+				+ "rewritten once the supplied number of milliseconds has "
+				+ "elapsed since the last change. This requires an output "
+				+ "file.");
+		options.addOption(OPT_EXTENSIONS, true, "Further file extensions, "
+				+ "separated by commas, of personal documents to collect "
+				+ "(e.g., mobi,prc,txt). Like PDF files, these are identified "
+				+ "by their path on the device.");
+		options.addOption(OPT_NO_CACHE, false, "Do not cache the meta-data "
+				+ "read from ebook headers. By default, it is cached in "
+				+ "'~/.cache/kdxgen/metadata.cache', so that the headers of "
+				+ "unchanged ebooks are not read again.");
+		options.addOption(OPT_MERGE, true, "Merge with an existing "
+				+ "collections file, such as 'system/collections.json' on the "
+				+ "Kindle device. Collections created on the device, and the "
+				+ "last access times of all collections, are kept.");
+		options.addOption(OPT_STATS, "stats", false, "Print statistics of "
+				+ "the scan, such as the number of files and the time spent "
+				+ "in each phase, to standard error at the end. These are "
+				+ "also available over JMX while running.");
+		options.addOption(OPT_DEVICE_LIST, true, "Read the paths to Kindle "
+				+ "device roots from the supplied file, one per line. This "
+				+ "may be combined with -d.");
+		options.addOption(OPT_PARALLEL_DEVICES, true, "The number of devices "
+				+ "processed in parallel when there are several. By default, "
+				+ defaultParallelDevices + " devices are processed in "
+				+ "parallel.");
+		Option serve = new Option(null, OPT_SERVE, true, "Serve the "
+				+ "collections of any device root over HTTP on the supplied "
+				+ "port, instead of processing the devices given.");
+		serve.setArgName("port");
+		options.addOption(serve);
+		options.addOption(new Option(null, OPT_DUPLICATES, false, "Print "
+				+ "the ebooks with identical contents to standard error at "
+				+ "the end. This is ignored with --serve."));
 	}
 
 	private CommandLine cmd = null;
-	private static String kdxRootPath = null;
+	private static ArrayList<String> kdxRootPaths = new ArrayList<String>();
+	private static int parallelDevices = defaultParallelDevices;
+	private static int servePort = -1;
 	private static String outputFile = null;
 	private static int maxlen = -1;
+	private static int threads = 1;
+	private static boolean incremental = false;
+	private static long watchWindow = -1;
+	private static String[] extensions = null;
+	private static boolean cache = true;
+	private static String mergeFile = null;
+	private static boolean stats = false;
+	private static boolean duplicates = false;
 	private static boolean cli = false;
 
 	/**
@@ -136,24 +233,124 @@ public class Generator {
 			 * without GUI. With GUI, the required values will be obtained from
 			 * a GUI form.
 			 */
-			if (!cmd.hasOption(REQ_KDX_ROOT)) {
+			if (cmd.hasOption(REQ_KDX_ROOT)) {
+				for (String path : cmd.getOptionValues(REQ_KDX_ROOT))
+					kdxRootPaths.add(path);
+			}
+			if (cmd.hasOption(OPT_DEVICE_LIST)) {
+				try {
+					readDeviceList(cmd.getOptionValue(OPT_DEVICE_LIST));
+				} catch (IOException e) {
+					logger.severe("Failed to read device list (" + e
+							+ ")...Exiting");
+					System.exit(1);
+				}
+			}
+			if (cmd.hasOption(OPT_SERVE)) {
+				servePort = Integer.parseInt(cmd.getOptionValue(OPT_SERVE));
+				if (servePort < 0 || servePort > 65535) {
+					logger.severe("Invalid port...Exiting");
+					showHelp();
+					System.exit(1);
+				}
+			}
+			if (kdxRootPaths.isEmpty() && servePort < 0) {
 				showHelp();
 				System.exit(1);
-			} else {
-				kdxRootPath = cmd.getOptionValue(REQ_KDX_ROOT);
-				if (kdxRootPath.length() < 1) {
+			}
+			for (String path : kdxRootPaths) {
+				if (path.length() < 1) {
 					logger.severe("Invalid Kindle root directory...Exiting");
 					showHelp();
 					System.exit(1);
 				}
 			}
+			if (cmd.hasOption(OPT_PARALLEL_DEVICES)) {
+				parallelDevices = Integer.parseInt(cmd
+						.getOptionValue(OPT_PARALLEL_DEVICES));
+				if (parallelDevices < 1) {
+					logger.severe("Invalid number of parallel devices..."
+							+ "Exiting");
+					showHelp();
+					System.exit(1);
+				}
+			}
 			if (cmd.hasOption(OPT_OUTPUT_FILE)) {
 				outputFile = cmd.getOptionValue(OPT_OUTPUT_FILE);
 			}
 			if (cmd.hasOption(OPT_MAXLEN)) {
 				maxlen = Integer.parseInt(cmd.getOptionValue(OPT_MAXLEN));
 			}
+			if (cmd.hasOption(OPT_THREADS)) {
+				threads = Integer.parseInt(cmd.getOptionValue(OPT_THREADS));
+				if (threads < 1) {
+					logger.severe("Invalid number of threads...Exiting");
+					showHelp();
+					System.exit(1);
+				}
+			}
+			if (kdxRootPaths.size() > 1 && !isDeviceRelative(outputFile)) {
+				logger.severe("Output file must be relative to the device "
+						+ "root with several devices...Exiting");
+				showHelp();
+				System.exit(1);
+			}
+			if (cmd.hasOption(OPT_INCREMENTAL)) {
+				if (outputFile == null && kdxRootPaths.size() == 1) {
+					logger.severe("Incremental scan requires an output "
+							+ "file...Exiting");
+					showHelp();
+					System.exit(1);
+				}
+				incremental = true;
+			}
+			if (cmd.hasOption(OPT_WATCH)) {
+				if (kdxRootPaths.size() > 1) {
+					logger.severe("Watch mode requires a single "
+							+ "device...Exiting");
+					showHelp();
+					System.exit(1);
+				}
+				if (outputFile == null) {
+					logger.severe("Watch mode requires an output "
+							+ "file...Exiting");
+					showHelp();
+					System.exit(1);
+				}
+				watchWindow = Long.parseLong(cmd.getOptionValue(OPT_WATCH));
+				if (watchWindow < 0) {
+					logger.severe("Invalid watch window...Exiting");
+					showHelp();
+					System.exit(1);
+				}
+			}
+			if (cmd.hasOption(OPT_EXTENSIONS)) {
+				extensions = cmd.getOptionValue(OPT_EXTENSIONS).split(",");
+			}
+			if (cmd.hasOption(OPT_MERGE)) {
+				mergeFile = cmd.getOptionValue(OPT_MERGE);
+				if (kdxRootPaths.size() > 1 && !isDeviceRelative(mergeFile)) {
+					logger.severe("Merge file must be relative to the device "
+							+ "root with several devices...Exiting");
+					showHelp();
+					System.exit(1);
+				}
+			}
+			if (cmd.hasOption(OPT_STATS)) {
+				stats = true;
+			}
+			if (cmd.hasOption(OPT_DUPLICATES)) {
+				if (servePort >= 0)
+					logger.warning("Duplicates are not reported when "
+							+ "serving. Ignoring --duplicates...");
+				else
+					duplicates = true;
+			}
+			if (cmd.hasOption(OPT_NO_CACHE)) {
+				cache = false;
+			}
 			if (cmd.hasOption(OPT_VERBOSE)) {
+				logger.setLevel(Level.ALL);
 				logger.setUseParentHandlers(true);
 			} else {
 				logger.setUseParentHandlers(false);
@@ -175,12 +372,202 @@ public class Generator {
 		if (!cli) {
 			Graphical gui = new Graphical();
 			gui.start();
-		} else {
-			Manager kdxm = (maxlen == -1) ? new Manager(kdxRootPath, true)
-					: new Manager(kdxRootPath, maxlen, true);
+		} else if (servePort >= 0) {
+			serve();
+		} else if (kdxRootPaths.size() == 1) {
+			Manager kdxm = createManager(kdxRootPaths.get(0), true);
+			if (cache)
+				kdxm.setMetadataCache(MetadataCache.getDefaultFile());
+			if (mergeFile != null)
+				kdxm.setMergeFile(mergeFile);
+			if (incremental)
+				kdxm.setManifest(outputFile + ".manifest");
 			kdxm.process();
 			kdxm.save(outputFile);
+			if (stats)
+				System.err.print(kdxm.getStatistics().report());
+			if (duplicates)
+				System.err.print(kdxm.getDuplicates().report());
+			if (watchWindow >= 0) {
+				Watcher watcher = new Watcher(kdxm, outputFile, watchWindow);
+				watcher.run();
+			}
+		} else {
+			if (!processDevices())
+				System.exit(1);
+		}
+	}
+
+	/**
+	 * Creates a collection manager for a device, with the formats requested
+	 * on the command line.
+	 * 
+	 * @param root
+	 *            the path to the Kindle device root.
+	 * @param exitOnError
+	 *            true to exit if the device is invalid; false to only fail
+	 *            the scan.
+	 * @return the manager.
+	 * @throws IOException
+	 */
+	private Manager createManager(String root, boolean exitOnError)
+			throws IOException {
+		Manager kdxm = new Manager(root,
+				(maxlen == -1) ? Manager.maxKDXDisplayLen : maxlen, threads,
+				exitOnError);
+		if (extensions != null) {
+			for (String ext : extensions) {
+				ext = ext.trim();
+				if (ext.length() > 0)
+					kdxm.getFormats().register(ext,
+							new PathHashFormat(Item.getType(ext)));
+			}
+		}
+		kdxm.setFindDuplicates(duplicates);
+		return kdxm;
+	}
+
+	/**
+	 * Reads the paths to Kindle device roots from a file, one per line. Blank
+	 * lines, and lines starting with '#', are ignored.
+	 * 
+	 * @param listFile
+	 *            the device list file.
+	 * @throws IOException
+	 */
+	private static void readDeviceList(String listFile) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(listFile), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0 && line.charAt(0) != '#')
+					kdxRootPaths.add(line);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Checks if a path may be resolved against every device root.
+	 */
+	private static boolean isDeviceRelative(String path) {
+		return path == null || !new File(path).isAbsolute();
+	}
+
+	/**
+	 * Processes one of several devices. Every device has its own collection
+	 * manager; only the meta-data cache is shared. The output and merge files
+	 * are resolved against the device root.
+	 */
+	private class DeviceTask implements Callable<String> {
+		private final String root;
+		private final MetadataCache metadataCache;
+
+		DeviceTask(String root, MetadataCache metadataCache) {
+			this.root = root;
+			this.metadataCache = metadataCache;
+		}
+
+		/**
+		 * Scans the device, and saves its collections.
+		 * 
+		 * @return the report of the device.
+		 */
+		public String call() throws Exception {
+			long start = System.currentTimeMillis();
+			// an invalid device must not stop the scans of the others
+			Manager kdxm = createManager(root, false);
+			kdxm.getStatistics().setDevice(root);
+			kdxm.setMetadataCache(metadataCache);
+			String out = new File(root, (outputFile == null) ? deviceOutputFile
+					: outputFile).getPath();
+			if (mergeFile != null)
+				kdxm.setMergeFile(new File(root, mergeFile).getPath());
+			if (incremental)
+				kdxm.setManifest(out + ".manifest");
+			if (!kdxm.process())
+				throw new IOException("not a Kindle device root directory");
+			boolean saved = kdxm.save(out);
+			String nl = System.getProperty("line.separator");
+			StringBuilder report = new StringBuilder();
+			report.append(root).append(": ")
+					.append(saved ? "saved '" : "unchanged '").append(out)
+					.append("', ").append(kdxm.getCollectionsFound())
+					.append(" collections, ").append(kdxm.getFilesVisited())
+					.append(" files in ")
+					.append(System.currentTimeMillis() - start).append(" ms")
+					.append(nl);
+			if (stats)
+				report.append(kdxm.getStatistics().report());
+			if (duplicates)
+				report.append(kdxm.getDuplicates().report());
+			return report.toString();
+		}
+	}
+
+	/**
+	 * Processes several devices, with a bounded number of devices in
+	 * parallel. A report is printed to standard error for every device, in
+	 * the order the devices were given.
+	 * 
+	 * @return true if every device was processed; false if any failed.
+	 */
+	private boolean processDevices() {
+		MetadataCache shared = cache ? new MetadataCache(
+				MetadataCache.getDefaultFile()) : null;
+		int n = kdxRootPaths.size();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(
+				parallelDevices, n));
+		ArrayList<Future<String>> reports = new ArrayList<Future<String>>();
+		for (String root : kdxRootPaths)
+			reports.add(pool.submit(new DeviceTask(root, shared)));
+		pool.shutdown();
+		boolean ok = true;
+		for (int i = 0; i < n; i++) {
+			String root = kdxRootPaths.get(i);
+			try {
+				System.err.print(reports.get(i).get());
+			} catch (ExecutionException e) {
+				logger.severe("Failed to process '" + root + "' ("
+						+ e.getCause() + ").");
+				System.err.println(root + ": failed (" + e.getCause() + ")");
+				ok = false;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
 		}
+		return ok;
+	}
+
+	/**
+	 * Serves the collections of any device root over HTTP, until the process
+	 * is stopped. Up to the number of parallel devices (-p) requests are
+	 * handled at once, and every device root is scanned with the options
+	 * supplied on the command line.
+	 * 
+	 * @throws IOException
+	 * @see CollectionServer
+	 */
+	private void serve() throws IOException {
+		final CollectionServer server = new CollectionServer(servePort,
+				parallelDevices, cache ? new MetadataCache(
+						MetadataCache.getDefaultFile()) : null) {
+			@Override
+			protected Manager createManager(String root) throws IOException {
+				return Generator.this.createManager(root, false);
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				server.stop(1);
+			}
+		});
+		server.start();
 	}
 
 	/**
@@ -194,8 +581,17 @@ public class Generator {
 	 * interface (GUI). By default, GUI is assumed.
 	 * 
 	 * <p>
+	 * {@code -b <arg>} Read the paths to Kindle device roots from the
+	 * supplied file, one per line.
+	 * 
+	 * <p>
 	 * {@code -d <arg>} Path to Kindle device root. This must point to the root
-	 * directory of the Kindle device.
+	 * directory of the Kindle device. This may be repeated to process several
+	 * devices, whose collections are then saved relative to each device root.
+	 * 
+	 * <p>
+	 * {@code -p <arg>} The number of devices processed in parallel when there
+	 * are several. By default, 4 devices are processed in parallel.
 	 * 
 	 * <p>
 	 * {@code -l <arg>} The maximum number of characters allowed as collection
@@ -204,12 +600,58 @@ public class Generator {
 	 * value is set to 48 characters.
 	 * 
 	 * <p>
+	 * {@code -e <arg>} Further file extensions, separated by commas, of
+	 * personal documents to collect by their path on the device.
+	 * 
+	 * <p>
+	 * {@code -i} Scan incrementally. A manifest saved next to the output file
+	 * records the directories scanned, so that subsequent scans only list the
+	 * directories that have changed.
+	 * 
+	 * <p>
+	 * {@code -j <arg>} The number of threads used for scanning the documents
+	 * tree. By default, a single thread is used.
+	 * 
+	 * <p>
+	 * {@code -m <arg>} Merge with an existing collections file. Collections
+	 * created on the device, and the last access times of all collections, are
+	 * kept.
+	 * 
+	 * <p>
+	 * {@code -s, --stats} Print statistics of the scan to standard error at
+	 * the end.
+	 * 
+	 * <p>
+	 * {@code --duplicates} Print the ebooks with identical contents to
+	 * standard error at the end. Only ebooks of the same size are compared,
+	 * first by a sample of their contents. This is ignored with
+	 * {@code --serve}.
+	 * 
+	 * <p>
+	 * {@code --serve <port>} Serve the collections of any device root over
+	 * HTTP on the loopback interface, e.g., {@code GET
+	 * /collections?root=/mnt/kdx}. The collections of the most recently
+	 * requested devices are kept, and a device is only scanned again once its
+	 * documents tree has changed.
+	 * 
+	 * <p>
+	 * {@code -n} Do not cache the meta-data read from ebook headers. By
+	 * default, it is cached in the user's cache directory.
+	 * 
+	 * <p>
 	 * {@code -o <arg>} Send result to output file. If unspecified, result will
 	 * be sent to standard output (stdout).
 	 * 
 	 * <p>
-	 * {@code -v} Display log information on console. By default, log
-	 * information is directed to '{@code /tmp/kdxgen.log}' file only.
+	 * {@code -w <arg>} Keep running, and update the output file as documents
+	 * are created, modified, deleted or renamed. The output file is rewritten
+	 * once the supplied number of milliseconds has elapsed since the last
+	 * change.
+	 * 
+	 * <p>
+	 * {@code -v} Display log information on console, including every file
+	 * that was skipped. By default, only the main events are logged, to the
+	 * '{@code /tmp/kdxgen.log}' file only.
 	 * 
 	 * @param args
 	 *            the command line arguments.
@@ -29,12 +29,18 @@ package com.yaikhom.kdx;
 
 import java.io.*;
 import java.net.URL;
-import java.security.NoSuchAlgorithmException;
 import java.util.Date;
+import java.util.List;
 import java.util.logging.Logger;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
 import javax.swing.text.html.HTMLEditorKit;
 import javax.swing.text.html.StyleSheet;
 
@@ -45,13 +51,18 @@ public class Graphical extends JPanel implements ActionListener {
 	private static final Logger logger = Logger.getLogger("com.yaikhom.kdx");
 
 	private static final long serialVersionUID = 1L;
+	private static final int maxExpandedItems = 500; // when searching
 	private JFrame frame;
-	private JButton openButton, saveButton, saveAsButton, exitButton;
+	private JButton openButton, cancelButton, saveButton, saveAsButton,
+			exitButton;
+	private JLabel status;
+	private JTextField search;
 	private JEditorPane help;
 	private JTree collTree;
 	private JScrollPane scrollPane;
 	private Manager kdxm;
 	private String kdxRootPath;
+	private boolean mergeFailed; // true if the device collections were lost
 
 	public Graphical() {
 		super(new BorderLayout());
@@ -88,6 +99,9 @@ public class Graphical extends JPanel implements ActionListener {
 		// Open Kindle root directory.
 		openButton = createButton("Open Kindle", "open", true);
 
+		// Cancel the scan of the Kindle device.
+		cancelButton = createButton("Cancel", "exit", false);
+
 		// Save as Kindle collection file.
 		saveButton = createButton("Save to Kindle", "save", false);
 
@@ -99,12 +113,41 @@ public class Graphical extends JPanel implements ActionListener {
 
 		JPanel buttonPanel = new JPanel();
 		buttonPanel.add(openButton);
+		buttonPanel.add(cancelButton);
 		buttonPanel.add(saveButton);
 		buttonPanel.add(saveAsButton);
 		buttonPanel.add(exitButton);
 
 		add(buttonPanel, BorderLayout.PAGE_START);
 		add(scrollPane, BorderLayout.CENTER);
+
+		// Search the collections as you type.
+		search = new JTextField(15);
+		search.setEnabled(false);
+		search.getDocument().addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent e) {
+				actionSearch();
+			}
+
+			public void removeUpdate(DocumentEvent e) {
+				actionSearch();
+			}
+
+			public void changedUpdate(DocumentEvent e) {
+			}
+		});
+		JPanel searchPanel = new JPanel();
+		searchPanel.add(new JLabel("Search:"));
+		searchPanel.add(search);
+
+		// Progress of the scan.
+		status = new JLabel(" ");
+		status.setBorder(BorderFactory.createEmptyBorder(2, 5, 2, 5));
+
+		JPanel statusPanel = new JPanel(new BorderLayout());
+		statusPanel.add(searchPanel, BorderLayout.LINE_START);
+		statusPanel.add(status, BorderLayout.CENTER);
+		add(statusPanel, BorderLayout.PAGE_END);
 	}
 
 	/**
@@ -145,6 +188,126 @@ public class Graphical extends JPanel implements ActionListener {
 		return b;
 	}
 
+	/**
+	 * Scans the Kindle device in the background, so that the interface remains
+	 * responsive. The collections are added to the tree as they are found, and
+	 * the complete tree is shown once the scan has finished or was cancelled.
+	 * The collections on the device are merged at the end of the scan, so
+	 * that those created on the device are kept when saving. If they cannot
+	 * be read, the device is scanned again without them.
+	 */
+	private class ScanWorker extends SwingWorker<Boolean, Object> implements
+			ScanListener {
+		private final long start = System.currentTimeMillis();
+		private final DefaultMutableTreeNode root = new DefaultMutableTreeNode(
+				"The Kindle Collection");
+		private final DefaultTreeModel model = new DefaultTreeModel(root);
+
+		ScanWorker() {
+			kdxm.setScanListener(this);
+		}
+
+		@Override
+		protected Boolean doInBackground() throws Exception {
+			String collPath = getCollectionsPath();
+			mergeFailed = false;
+			if (!new File(collPath).exists())
+				return kdxm.process();
+			kdxm.setMergeFile(collPath);
+			try {
+				return kdxm.process();
+			} catch (IOException ex) {
+				logger.warning("Failed to merge existing collection (" + ex
+						+ ").");
+				mergeFailed = true;
+				kdxm.setMergeFile(null);
+				return kdxm.process();
+			}
+		}
+
+		public void scanProgress(long directories, long files, int collections) {
+			publish(new long[] { directories, files, collections });
+		}
+
+		public void collectionFound(String name) {
+			publish(name);
+		}
+
+		@Override
+		protected void process(List<Object> chunks) {
+			long[] progress = null;
+			for (Object o : chunks) {
+				if (o instanceof String) {
+					if (root.getChildCount() == 0)
+						showTree(new JTree(model));
+					model.insertNodeInto(new DefaultMutableTreeNode(o), root,
+							root.getChildCount());
+				} else {
+					progress = (long[]) o;
+				}
+			}
+			if (progress != null)
+				showProgress(progress, false);
+		}
+
+		/**
+		 * Shows the number of entries visited, and the throughput.
+		 */
+		private void showProgress(long[] progress, boolean finished) {
+			long elapsed = Math.max(1, System.currentTimeMillis() - start);
+			status.setText((finished ? "Scanned " : "Scanning... ")
+					+ progress[0] + " directories, " + progress[1]
+					+ " files, " + progress[2] + " collections ("
+					+ (1000 * progress[1] / elapsed) + " files/s)"
+					+ (kdxm.isCancelled() ? ", cancelled." : "."));
+		}
+
+		@Override
+		protected void done() {
+			kdxm.setScanListener(null);
+			openButton.setEnabled(true);
+			cancelButton.setEnabled(false);
+			boolean loaded = false;
+			try {
+				loaded = get();
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+			if (loaded) {
+				showTree(kdxm.getCollectionTree());
+				search.setEnabled(true);
+				if (search.getText().length() > 0)
+					actionSearch();
+				showProgress(new long[] { kdxm.getDirectoriesVisited(),
+						kdxm.getFilesVisited(), kdxm.getCollectionsFound() },
+						true);
+				saveButton.setEnabled(true);
+				saveAsButton.setEnabled(true);
+			} else {
+				if (collTree != null) {
+					scrollPane.setViewportView(help);
+					collTree = null;
+				}
+				status.setText(" ");
+				JOptionPane.showMessageDialog(frame,
+						"Supplied path is not a Kindle "
+								+ "device root directory.",
+						"Invalid Kindle device", JOptionPane.ERROR_MESSAGE);
+			}
+		}
+	}
+
+	/**
+	 * Shows a collection tree in place of the introduction.
+	 * 
+	 * @param tree
+	 *            the tree to show.
+	 */
+	private void showTree(JTree tree) {
+		collTree = tree;
+		scrollPane.setViewportView(collTree);
+	}
+
 	/**
 	 * Invoked when the 'Open Kindle' button is pressed.
 	 */
@@ -158,31 +321,15 @@ public class Graphical extends JPanel implements ActionListener {
 			logger.info("Opening Kindle directory " + kdxRootPath);
 			try {
 				kdxm = new Manager(kdxRootPath, false);
-				try {
-					if (kdxm.process()) {
-						collTree = kdxm.getCollectionTree();
-						scrollPane.remove(help);
-						scrollPane.add(collTree);
-						scrollPane.setViewportView(collTree);
-						saveButton.setEnabled(true);
-						saveAsButton.setEnabled(true);
-					} else {
-						if (collTree != null) {
-							scrollPane.remove(collTree);
-							scrollPane.add(help);
-							scrollPane.setViewportView(help);
-							saveButton.setEnabled(false);
-							saveAsButton.setEnabled(false);
-						}
-						JOptionPane.showMessageDialog(frame,
-								"Supplied path is not a Kindle "
-										+ "device root directory.",
-								"Invalid Kindle device",
-								JOptionPane.ERROR_MESSAGE);
-					}
-				} catch (NoSuchAlgorithmException ex) {
-					ex.printStackTrace();
-				}
+				kdxm.setMetadataCache(MetadataCache.getDefaultFile());
+				kdxm.setSearchable(true);
+				openButton.setEnabled(false);
+				saveButton.setEnabled(false);
+				saveAsButton.setEnabled(false);
+				search.setEnabled(false);
+				cancelButton.setEnabled(true);
+				status.setText("Scanning...");
+				new ScanWorker().execute();
 			} catch (SecurityException ex) {
 				ex.printStackTrace();
 			} catch (IOException ex) {
@@ -194,31 +341,90 @@ public class Graphical extends JPanel implements ActionListener {
 	}
 
 	/**
-	 * Invoked when the 'Save to Kindle' button is pressed.
+	 * Invoked when the search text changes. Only the matching collections and
+	 * items are shown, and the collections are expanded while few items are
+	 * shown.
+	 */
+	private void actionSearch() {
+		if (collTree == null || !search.isEnabled())
+			return;
+		String query = search.getText().trim();
+		TreeModel model = kdxm.getCollectionModel(query);
+		collTree.setModel(model);
+		if (query.length() == 0)
+			return;
+		Object root = model.getRoot();
+		int shown = 0;
+		for (int i = 0, l = model.getChildCount(root); i < l; i++) {
+			Object c = model.getChild(root, i);
+			shown += model.getChildCount(c);
+			if (shown > maxExpandedItems)
+				break;
+			collTree.expandPath(new TreePath(new Object[] { root, c }));
+		}
+	}
+
+	/**
+	 * Invoked when the 'Cancel' button is pressed during a scan.
+	 */
+	private void actionCancel() {
+		logger.info("Scan cancelled by user.");
+		cancelButton.setEnabled(false);
+		kdxm.cancel();
+	}
+
+	/**
+	 * Returns the path of the collections file of the Kindle device.
+	 */
+	private String getCollectionsPath() {
+		return kdxRootPath + "/system/collections.json";
+	}
+
+	/**
+	 * Invoked when the 'Save to Kindle' button is pressed. The collections
+	 * created on the device were merged by the scan.
 	 */
 	private void actionSave() {
-		String collPath = kdxRootPath + "/system/collections.json";
-		File oldColl = new File(collPath);
-		if (oldColl.exists()) {
-			File bakColl = new File(collPath + "." + (new Date()).getTime());
-			if (!oldColl.renameTo(bakColl)) {
-				logger.warning("Failed to save existing collection.");
-				int response = JOptionPane
-						.showConfirmDialog(frame,
-								"Failed to save existing collection. "
-										+ "Do you wish to continue?",
-								"Saving to Kindle device",
-								JOptionPane.OK_CANCEL_OPTION);
-				if (response == JOptionPane.CANCEL_OPTION) {
-					logger.warning("Save to Kindle device cancelled.");
-					return;
-				}
+		String collPath = getCollectionsPath();
+		if (mergeFailed) {
+			int response = JOptionPane.showConfirmDialog(frame,
+					"Failed to read existing collection. Collections "
+							+ "created on the device will be lost. "
+							+ "Do you wish to continue?",
+					"Saving to Kindle device", JOptionPane.OK_CANCEL_OPTION);
+			if (response == JOptionPane.CANCEL_OPTION) {
+				logger.warning("Save to Kindle device cancelled.");
+				return;
 			}
 		}
+		String bakPath = collPath + "." + (new Date()).getTime();
+		boolean saved;
 		try {
-			kdxm.save(collPath);
+			saved = kdxm.save(collPath, bakPath);
 		} catch (IOException ex) {
-			ex.printStackTrace();
+			logger.warning("Failed to save existing collection (" + ex + ").");
+			int response = JOptionPane.showConfirmDialog(frame,
+					"Failed to save existing collection. "
+							+ "Do you wish to continue?",
+					"Saving to Kindle device", JOptionPane.OK_CANCEL_OPTION);
+			if (response == JOptionPane.CANCEL_OPTION) {
+				logger.warning("Save to Kindle device cancelled.");
+				return;
+			}
+			try {
+				saved = kdxm.save(collPath);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+		if (!saved) {
+			JOptionPane.showMessageDialog(frame,
+					"Collection on Kindle device is already up to date.",
+					"Saving to Kindle device",
+					JOptionPane.INFORMATION_MESSAGE);
+			logger.info("Collection on Kindle device is already up to date.");
+			return;
 		}
 		JOptionPane.showMessageDialog(frame,
 				"Collection successfully saved to Kindle device.",
@@ -261,6 +467,10 @@ public class Graphical extends JPanel implements ActionListener {
 			actionOpen();
 			return;
 		}
+		if (e.getSource() == cancelButton) {
+			actionCancel();
+			return;
+		}
 		if (e.getSource() == saveButton) {
 			actionSave();
 			return;
@@ -37,7 +37,27 @@ public class Item {
 	public static final int PDF_FILE = 1;
 	public static final int AZW_FILE = 2;
 	public static final int AZW1_FILE = 3;
-	public static final String[] typeName = {"Unknown", "pdf", "azw", "azw1"};
+	public static final int MOBI_FILE = 4;
+	public static final int AZW3_FILE = 5;
+	public static final int PRC_FILE = 6;
+	public static final int TXT_FILE = 7;
+	public static final String[] typeName = {"Unknown", "pdf", "azw", "azw1",
+			"mobi", "azw3", "prc", "txt"};
+
+	/**
+	 * Returns the item type which corresponds to a file extension.
+	 * 
+	 * @param ext
+	 *            the file extension, without the dot.
+	 * @return the item type, or {@code UNKNOWN_TYPE}.
+	 */
+	public static int getType(String ext) {
+		for (int i = 1; i < typeName.length; i++) {
+			if (typeName[i].equalsIgnoreCase(ext))
+				return i;
+		}
+		return UNKNOWN_TYPE;
+	}
 	
 	// Item properties
 	private String name = null;
@@ -75,7 +95,8 @@ public class Item {
 		StringBuffer s = new StringBuffer();
 		s.append("Name: " + name);
 		s.append(", Path: " + path);
-		s.append(", Type: " + typeName[type]);
+		s.append(", Type: "
+				+ typeName[(type < typeName.length) ? type : UNKNOWN_TYPE]);
 		s.append(", Key: " + key);
 		return s.toString();
 	}
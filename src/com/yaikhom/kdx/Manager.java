@@ -28,20 +28,46 @@
 package com.yaikhom.kdx;
 
 import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.swing.JTree;
-import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.TreeSelectionModel;
 
 import com.yaikhom.kdx.Collection;
@@ -50,10 +76,10 @@ import com.yaikhom.kdx.Collection;
  * Encapsulates a KDX collection manager.
  * 
  * <p>
- * <b>TODO:</b> The current document meta-data retrieval process, which uses the
- * filename instead of the document headers, is unreliable. In future updates,
- * this will be modified so that the information is retrieved directly from the
- * meta-data file header. Further information available at:
+ * The document meta-data is parsed from the filename where possible, since
+ * this does not require opening the document. When the filename does not carry
+ * the meta-data, it is retrieved from the document header instead (see
+ * {@link MobiHeader}). Further information available at:
  * 
  * <p>
  * {@code http://wiki.mobileread.com/wiki/E-book_formats}
@@ -69,17 +95,54 @@ public class Manager {
 	 * generating collections.json
 	 */
 	private HashMap<String, Collection> collections;
+	private DirectoryTrie trie; // directories and their collections
 	private String kdxRootPath; // Path to the Kindle device root directory
-	private Checksum checksum; // For KDX checksum calculations
+	private FormatRegistry formats; // Document format handlers
 	private int maxlengthCollectionName;
-	private boolean cli; // true of command line; false if GUI
-	SortedSet<String> sortedCollection;
+	private boolean exitOnError; // true to exit if the device is invalid
+	private int threads; // number of scanning threads
+	private String manifestFile; // null unless scanning incrementally
+	private Manifest previousManifest; // manifest of the previous scan
+	private Manifest manifest; // manifest of the current scan
+	private MetadataCache metadataCache; // null unless caching headers
+	private DuplicateFinder duplicates; // null unless finding duplicates
+	private String mergeFile; // null unless merging with existing collections
+	private long scanStart; // time when the current scan started
+	private boolean retainManifest; // true if the manifest is kept in memory
+	private long documentsModified; // of the documents root, when scanned
+	private ScanListener listener; // null unless reporting progress
+	private volatile boolean cancelled; // true if the scan must stop
+	private final ScanStatistics statistics = new ScanStatistics();
+	private final AtomicLong lastReport = new AtomicLong(); // in nanoseconds
+	private SearchIndex searchIndex; // null until needed after a change
+	private boolean searchable; // true if the search index is built eagerly
+	private final NaturalOrder order = new NaturalOrder(null);
+	private final NaturalOrder displayOrder = new NaturalOrder();
+	private Collection[] index; // null until needed after a change
+	private Collection[] displayIndex; // null until displayed
+	private final HashSet<Collection> unsortedItems = new HashSet<Collection>();
+	private ForkJoinPool pool; // created on first use
 
 	/**
 	 * Default maximum number of characters allowed in collection names.
 	 */
 	public static final int maxKDXDisplayLen = 48; // Fits nicely within KDX
 
+	/*
+	 * Coarsest directory modification time resolution (FAT), in milliseconds.
+	 */
+	private static final long mtimeResolution = 2000;
+
+	/*
+	 * Minimum interval between progress reports, in nanoseconds.
+	 */
+	private static final long reportInterval = 100000000L;
+
+	/*
+	 * Label of the root of the collection tree.
+	 */
+	private static final String treeRoot = "The Kindle Collection";
+
 	/**
 	 * This returns all of the collections, as required by the KDX
 	 * collections.json file. This file should be copied (or replace)
@@ -91,292 +154,720 @@ public class Manager {
 	 */
 	@Override
 	public String toString() {
-		Iterator<String> i = sortedCollection.iterator();
-		StringBuffer buf = new StringBuffer("{");
-		if (i.hasNext()) {
-			Collection c = collections.get(i.next());
-			buf.append(c.toString());
-			while (i.hasNext()) {
-				c = collections.get(i.next());
-				buf.append("," + c.toString());
-			}
+		StringWriter buf = new StringWriter();
+		try {
+			write(buf);
+		} catch (IOException e) {
+			// StringWriter does not throw
 		}
-		buf.append("}");
 		return buf.toString();
 	}
 
 	/**
-	 * Get collection names.
+	 * This writes all of the collections as JSON, as required by the KDX
+	 * collections.json file. Each collection is written directly to the
+	 * supplied writer, so that the document is never held in memory.
+	 * 
+	 * @param out
+	 *            the writer to write to.
+	 * @throws IOException
+	 * @see Collection#write(Writer)
+	 */
+	public void write(Writer out) throws IOException {
+		out.write('{');
+		boolean first = true;
+		for (Collection c : getIndex()) {
+			if (c.size() == 0 && !c.isImported())
+				continue;
+			if (!first)
+				out.write(',');
+			first = !c.write(out) && first;
+		}
+		out.write('}');
+	}
+
+	/**
+	 * Get collection names, in display order.
 	 * 
 	 * @return Names of collections
 	 */
 	public String getCollectionNames() {
-		Iterator<String> i = sortedCollection.iterator();
+		Collection[] index = getDisplayIndex();
 		StringBuffer buf = new StringBuffer();
-		if (i.hasNext()) {
-			Collection c = collections.get(i.next());
-			buf.append(c.getName());
-			while (i.hasNext()) {
-				c = collections.get(i.next());
-				buf.append("\n" + c.getName());
-			}
+		for (int i = 0; i < index.length; i++) {
+			if (i > 0)
+				buf.append('\n');
+			buf.append(index[i].getName());
 		}
 		return buf.toString();
 	}
 
 	/**
-	 * Get collection tree (collections and their files).
+	 * Get collection tree (collections and their files). The tree is backed
+	 * by the collections, so that the items of a collection are only visited
+	 * when it is expanded. All rows have the same height, so that the tree
+	 * does not measure the rows it does not show.
 	 * 
 	 * @return A two-level collection tree
+	 * @see CollectionTreeModel
 	 */
 	public JTree getCollectionTree() {
-		Iterator<String> i = sortedCollection.iterator();
-		DefaultMutableTreeNode kdxc = new DefaultMutableTreeNode(
-				"The Kindle Collection");
-		if (i.hasNext()) {
-			Collection c = collections.get(i.next());
-			kdxc.add(c.getCollectionNode());
-			while (i.hasNext()) {
-				c = collections.get(i.next());
-				kdxc.add(c.getCollectionNode());
-			}
-		}
-		JTree tree = new JTree(kdxc);
+		JTree tree = new JTree(getCollectionModel(null));
+		tree.setRowHeight(Math.max(16, tree.getFontMetrics(tree.getFont())
+				.getHeight()) + 2);
+		tree.setLargeModel(true);
 		tree.getSelectionModel().setSelectionMode(
 				TreeSelectionModel.SINGLE_TREE_SELECTION);
 		return tree;
 	}
 
 	/**
-	 * This checks if the name of the file has the supplied extension. We assume
-	 * that the extension is the text after the last dot '.', if it exists. If
-	 * there is no '.', this method returns false.
+	 * Get a model of the collection tree, which only shows the collections
+	 * and items with names containing the supplied text, ignoring case. The
+	 * search uses an index of the names, which is built when the documents
+	 * tree is processed.
 	 * 
-	 * @param file
-	 *            the name of the file.
-	 * @param extGroup
-	 *            a list of strings that form an extension group.
-	 * @return true if the filename has the supplied extension; otherwise,
-	 *         false.
-	 */
-	private boolean hasExtension(File file, ArrayList<String> extGroup) {
-		boolean is = false;
-		if (extGroup != null && extGroup.size() > 0) {
-			String fname = file.getName();
-			int i = fname.lastIndexOf('.');
-			if (i != -1) {
-				String e = fname.substring(i + 1);
-				Iterator<String> j = extGroup.iterator();
-				while (j.hasNext()) {
-					if (is = e.equals(j.next()))
-						break;
-				}
+	 * @param query
+	 *            the text to search for, or null to show all of the
+	 *            collections.
+	 * @return A two-level collection tree model
+	 * @see SearchIndex
+	 */
+	public CollectionTreeModel getCollectionModel(String query) {
+		if (query == null || query.length() == 0)
+			return new CollectionTreeModel(treeRoot, getSortedCollections());
+		if (searchIndex == null)
+			searchIndex = new SearchIndex(getSortedCollections());
+		return searchIndex.search(treeRoot, query);
+	}
+
+	/**
+	 * Returns the collections in the display order of their names.
+	 */
+	private List<Collection> getSortedCollections() {
+		return Arrays.asList(getDisplayIndex());
+	}
+
+	/**
+	 * Returns the collection index, which is built again after the
+	 * collections have changed. The items of the collections that were
+	 * changed are sorted first.
+	 */
+	private Collection[] getIndex() {
+		if (index == null) {
+			for (Collection c : unsortedItems)
+				c.sortItems(order);
+			unsortedItems.clear();
+			buildIndex(false);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the collections sorted in the natural order of their names in
+	 * the default locale, which is only used for display. With several
+	 * threads, the collation keys are computed, and the collections sorted,
+	 * in parallel.
+	 */
+	private Collection[] getDisplayIndex() {
+		Collection[] index = getIndex();
+		if (displayIndex == null) {
+			int n = index.length;
+			String[] names = new String[n];
+			for (int i = 0; i < n; i++)
+				names[i] = index[i].getName();
+			// names that collate as equal keep the order of the index
+			int[] sorted = displayOrder.sort(names, names,
+					(threads > 1) ? getPool() : null);
+			Collection[] c = new Collection[n];
+			for (int i = 0; i < n; i++)
+				c[i] = index[sorted[i]];
+			displayIndex = c;
+		}
+		return displayIndex;
+	}
+
+	/**
+	 * Returns the fork/join pool used for scanning and sorting, which is
+	 * kept for subsequent scans and updates.
+	 */
+	private ForkJoinPool getPool() {
+		if (pool == null)
+			pool = new ForkJoinPool(threads);
+		return pool;
+	}
+
+	/**
+	 * Sorts the collections into the collection index, in the natural order
+	 * of their names (see {@link NaturalOrder}). Collections of the same name,
+	 * but of different locales, are ordered by their keys. The names are
+	 * compared by their characters, so that the collections file written from
+	 * the index does not depend on the locale of the machine. With several
+	 * threads, the collections are sorted in parallel.
+	 * 
+	 * <p>
+	 * The items are sorted the same way, since collation keys for every item
+	 * of a large library would cost more than the scan.
+	 * 
+	 * @param sortItems
+	 *            true to also sort the items of every collection.
+	 */
+	private void buildIndex(boolean sortItems) {
+		ForkJoinPool pool = (threads > 1) ? getPool() : null;
+		if (sortItems) {
+			unsortedItems.clear();
+			if (pool == null) {
+				for (Collection c : collections.values())
+					c.sortItems(order);
+			} else {
+				ArrayList<ItemSortTask> tasks = new ArrayList<ItemSortTask>();
+				for (Collection c : collections.values())
+					if (c.size() > 1)
+						tasks.add(new ItemSortTask(c));
+				for (ItemSortTask t : tasks)
+					pool.execute(t);
+				for (ItemSortTask t : tasks)
+					t.join();
 			}
 		}
-		return is;
+		int n = collections.size(), i = 0;
+		Collection[] unsorted = new Collection[n];
+		String[] names = new String[n];
+		String[] keys = new String[n];
+		for (Map.Entry<String, Collection> e : collections.entrySet()) {
+			unsorted[i] = e.getValue();
+			names[i] = e.getValue().getName();
+			keys[i++] = e.getKey();
+		}
+		int[] sorted = order.sort(names, keys, pool);
+		Collection[] c = new Collection[n];
+		for (i = 0; i < n; i++)
+			c[i] = unsorted[sorted[i]];
+		index = c;
+		displayIndex = null;
+	}
+
+	/**
+	 * Sorts the items of a collection.
+	 */
+	private class ItemSortTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Collection collection;
+
+		ItemSortTask(Collection collection) {
+			this.collection = collection;
+		}
+
+		@Override
+		protected void compute() {
+			collection.sortItems(order);
+		}
+	}
+
+	/**
+	 * Returns the document formats collected by this manager. Handlers for
+	 * further formats may be registered before processing.
+	 * 
+	 * @return the format registry.
+	 */
+	public FormatRegistry getFormats() {
+		return formats;
 	}
 
 	/**
-	 * This processes a PDF file for inclusion in the KDX collection.
+	 * This classifies a file, and creates the corresponding collection item if
+	 * the file is a supported document.
 	 * 
 	 * @param file
 	 *            the file to process.
-	 * @return the item representing the document within the collection.
-	 * @throws UnsupportedEncodingException
+	 * @param currentDir
+	 *            the current directory being processed.
+	 * @return the collection item, or null if the file is not collectible.
 	 * @throws NoSuchAlgorithmException
+	 * @throws UnsupportedEncodingException
 	 */
-	private Item processPDF(File file, String currentDir)
+	Item createItem(Path file, String currentDir)
 			throws NoSuchAlgorithmException, UnsupportedEncodingException {
-		StringBuffer temp = new StringBuffer();
-		temp.append(currentDir);
-		temp.append(file.getName());
-		String key = checksum.getKDXFilenameHash(temp.toString());
-		if (key == null)
-			return null;
-		else {
-			Item item = new Item();
-			item.setType(Item.PDF_FILE);
-			item.setName(file.getName());
-			item.setPath(file.getPath());
-			item.setKey("*" + key); // KDX format requires '*' prefixing.
-			return item;
+		long start = System.nanoTime();
+		String fname = file.getFileName().toString();
+		Format format = formats.lookup(fname);
+		Item item = null;
+		if (format != null) {
+			item = format.process(file, fname, currentDir);
+			if (item != null)
+				statistics.accepted(item.getFileType());
 		}
+		statistics.addClassifyTime(System.nanoTime() - start);
+		return item;
 	}
 
 	/**
-	 * This processes a AZW file for inclusion in the KDX collection.
+	 * Walks a directory subtree on the current thread. The file attributes
+	 * are read once per entry, while the directory is being streamed, and the
+	 * items are added directly to the collection of their directory.
+	 */
+	private class DirectoryWalker extends SimpleFileVisitor<Path> {
+		/*
+		 * Trie nodes of the directories being visited.
+		 */
+		private final ArrayDeque<DirectoryTrie.Node> nodes = new ArrayDeque<DirectoryTrie.Node>();
+		private final boolean skipCollected; // true to skip collected files
+
+		DirectoryWalker(DirectoryTrie.Node node, boolean skipCollected) {
+			nodes.push(node);
+			this.skipCollected = skipCollected;
+		}
+
+		@Override
+		public FileVisitResult preVisitDirectory(Path dir,
+				BasicFileAttributes attrs) {
+			if (cancelled)
+				return FileVisitResult.TERMINATE;
+			statistics.directories.incrementAndGet();
+			reportProgress(false);
+			nodes.push(trie.getChild(nodes.peek(), dir.getFileName()
+					.toString()));
+			return FileVisitResult.CONTINUE;
+		}
+
+		@Override
+		public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+				throws IOException {
+			if (!attrs.isDirectory()) {
+				statistics.files.incrementAndGet();
+				DirectoryTrie.Node node = nodes.peek();
+				try {
+					Item item = createItem(file, node.getPath());
+					if (item != null) {
+						Collection c = getCollection(node);
+						if (skipCollected
+								&& c.indexOf(node, item.getName()) != -1)
+							return FileVisitResult.CONTINUE;
+						c.addItem(node, item);
+						if (duplicates != null)
+							duplicates.add(file, attrs.size());
+					}
+				} catch (NoSuchAlgorithmException e) {
+					throw new ScanException(e);
+				}
+			}
+			return FileVisitResult.CONTINUE;
+		}
+
+		@Override
+		public FileVisitResult visitFileFailed(Path file, IOException exc) {
+			logger.warning("Failed to read '" + file + "' (" + exc
+					+ "). Skipping file...");
+			return FileVisitResult.CONTINUE;
+		}
+
+		@Override
+		public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+			if (exc != null)
+				logger.warning("Failed to read directory '" + dir + "' ("
+						+ exc + ").");
+			nodes.pop();
+			return FileVisitResult.CONTINUE;
+		}
+	}
+
+	/**
+	 * Processes all of the files and directories under the supplied directory.
 	 * 
-	 * @param file
-	 *            the file to process.
-	 * @return the item representing the document within the collection.
-	 * @throws UnsupportedEncodingException
+	 * @param dir
+	 *            the directory to process.
+	 * @param basepath
+	 *            the current path relative to KDX mount point.
+	 * @param skipCollected
+	 *            true to skip the files that are already collected, e.g.,
+	 *            when the directory may have been processed before.
+	 * @throws IOException
 	 * @throws NoSuchAlgorithmException
 	 */
-	private Item processAZW(File file) throws NoSuchAlgorithmException,
-			UnsupportedEncodingException {
-		String key = null;
-		String fname = file.getName();
-		String[] temp1 = fname.split("-asin_");
-		if (temp1.length > 1) {
-			String[] temp2 = temp1[1].split("-type_");
-			if (temp2.length > 1) {
-				String asin = temp2[0];
-				temp1 = temp2[1].split("-v_");
-				if (temp1.length > 1) {
-					String type = temp1[0];
-
-					// We only collection proper KDX ebooks.
-					// Please note that KDX automatically collects
-					// NWPR in the 'periodicals' collection.
-					if ("EBOK".equals(type) || "EBSP".equals(type)) {
-						// KDX format requires ASIN and TYPE
-						key = asin + "^" + type;
+	private void processFileTree(Path dir, String basepath,
+			boolean skipCollected) throws IOException,
+			NoSuchAlgorithmException {
+		DirectoryWalker walker = new DirectoryWalker(trie.getNode(basepath),
+				skipCollected);
+		try {
+			Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+					Integer.MAX_VALUE, walker);
+		} catch (ScanException e) {
+			throw (NoSuchAlgorithmException) e.getCause();
+		}
+	}
+
+	/**
+	 * Wraps checked exceptions thrown while walking a directory tree, so that
+	 * they can be rethrown by the thread that started the scan.
+	 */
+	private static class ScanException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		ScanException(Exception cause) {
+			super(cause);
+		}
+	}
+
+	/**
+	 * Scans a directory subtree in parallel. Every task streams one directory,
+	 * creates the items for the files it contains, and forks a subtask for
+	 * each subdirectory. The tasks retain the directory order, so that the
+	 * results can be merged into the collections in the same order as a
+	 * sequential scan. For incremental scans, a directory that is unchanged
+	 * since the previous scan is not listed; its entries are taken from the
+	 * manifest.
+	 * 
+	 * <p>
+	 * Like {@link Files#walkFileTree}, symbolic links are followed, and a
+	 * subdirectory that is the same as the top-level directory of the task,
+	 * or one of the directories in between, is skipped.
+	 */
+	private class DirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final DirectoryTask parent; // null for a top-level directory
+		private final Path dir;
+		private final BasicFileAttributes attrs;
+		private final String basepath;
+
+		/*
+		 * Items and subtasks in the order returned by the directory listing.
+		 */
+		private final ArrayList<Object> entries = new ArrayList<Object>();
+
+		/*
+		 * Subdirectory names and items, as recorded in the manifest.
+		 */
+		private final ArrayList<Object> record = new ArrayList<Object>();
+
+		DirectoryTask(DirectoryTask parent, Path dir, BasicFileAttributes attrs,
+				String basepath) {
+			this.parent = parent;
+			this.dir = dir;
+			this.attrs = attrs;
+			this.basepath = basepath + dir.getFileName() + '/';
+		}
+
+		/**
+		 * Checks if a subdirectory is this directory, or one of its ancestors
+		 * up to the top-level directory of the task, as the file tree walker
+		 * does.
+		 */
+		private boolean isLoop(Path p, BasicFileAttributes a) {
+			Object key = a.fileKey();
+			for (DirectoryTask t = this; t != null; t = t.parent) {
+				Object k = t.attrs.fileKey();
+				if (key != null && k != null) {
+					if (key.equals(k))
+						return true;
+				} else {
+					try {
+						if (Files.isSameFile(p, t.dir))
+							return true;
+					} catch (IOException e) {
+						// not the same file
 					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Adds a subdirectory to be scanned, unless it would loop.
+		 */
+		private void addDirectory(Path p, BasicFileAttributes a,
+				ArrayList<DirectoryTask> subtasks) {
+			if (isLoop(p, a)) {
+				logger.warning("Failed to read '" + p + "' ("
+						+ new FileSystemLoopException(p.toString())
+						+ "). Skipping file...");
+				return;
+			}
+			DirectoryTask t = new DirectoryTask(this, p, a, basepath);
+			subtasks.add(t);
+			entries.add(t);
+			record.add(p.getFileName().toString());
+		}
+
+		/**
+		 * Adds an item found in this directory.
+		 */
+		private void addEntry(Item item) {
+			entries.add(item);
+			record.add(item);
+		}
+
+		/**
+		 * Lists the directory, and classifies its files.
+		 */
+		private void list(ArrayList<DirectoryTask> subtasks)
+				throws IOException, NoSuchAlgorithmException {
+			DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+			try {
+				for (Path p : stream) {
+					BasicFileAttributes a = readAttributes(p);
+					if (a == null)
+						continue;
+					if (a.isDirectory())
+						addDirectory(p, a, subtasks);
+					else
+						addFile(p, a);
+				}
+			} finally {
+				stream.close();
+			}
+		}
+
+		/**
+		 * Classifies a file, and adds it if it is collectible. Otherwise, it
+		 * is recorded so that it is classified again on the next scan.
+		 */
+		private void addFile(Path p, BasicFileAttributes a)
+				throws NoSuchAlgorithmException, UnsupportedEncodingException {
+			statistics.files.incrementAndGet();
+			Item item = createItem(p, basepath);
+			if (item == null) {
+				record.add(new Manifest.Unclassified(p.getFileName()
+						.toString()));
+				return;
+			}
+			addEntry(item);
+			if (duplicates != null)
+				duplicates.add(p, a.size());
+		}
+
+		/**
+		 * Reuses the entries recorded in the manifest. Only the attributes of
+		 * the subdirectories are read, since they may have changed. Files are
+		 * classified again if their format is no longer that of the recorded
+		 * item, or if a format has been registered for a file that was not
+		 * collected.
+		 */
+		private void reuse(Manifest.Directory cached,
+				ArrayList<DirectoryTask> subtasks)
+				throws NoSuchAlgorithmException, UnsupportedEncodingException {
+			for (Object e : cached.getEntries()) {
+				if (e instanceof Item) {
+					Item item = (Item) e;
+					Path p = dir.resolve(item.getName());
+					Format f = formats.lookup(item.getName());
+					if (f == null || f.getType() != item.getFileType()) {
+						BasicFileAttributes a = readAttributes(p);
+						if (a != null)
+							addFile(p, a);
+						continue;
+					}
+					statistics.files.incrementAndGet();
+					item.setPath(p.toString());
+					addEntry(item);
+					if (duplicates != null) {
+						BasicFileAttributes a = readAttributes(p);
+						if (a != null)
+							duplicates.add(p, a.size());
+					}
+				} else if (e instanceof Manifest.Unclassified) {
+					String name = ((Manifest.Unclassified) e).getName();
+					if (formats.lookup(name) == null) {
+						statistics.files.incrementAndGet();
+						record.add(e);
+						continue;
+					}
+					Path p = dir.resolve(name);
+					BasicFileAttributes a = readAttributes(p);
+					if (a != null && !a.isDirectory())
+						addFile(p, a);
 				} else {
-					logger.info("No version found in '" + fname
-							+ "'. Skipping file...");
+					Path p = dir.resolve((String) e);
+					BasicFileAttributes a = readAttributes(p);
+					if (a != null && a.isDirectory())
+						addDirectory(p, a, subtasks);
 				}
-			} else {
-				logger.info("No book type found in '" + fname
-						+ "'. Skipping file...");
 			}
-		} else {
-			logger.info("No ASIN found in '" + fname + "'. Skipping file...");
 		}
-		if (key == null)
-			return null;
-		else {
-			Item item = new Item();
-			item.setType(Item.AZW_FILE);
-			item.setName(file.getName());
-			item.setPath(file.getPath());
-			item.setKey("#" + key); // KDX format requires '#' prefixing.
-			return item;
+
+		@Override
+		protected void compute() {
+			if (cancelled)
+				return; // nothing is merged from this subtree
+			statistics.directories.incrementAndGet();
+			reportProgress(false);
+			ArrayList<DirectoryTask> subtasks = new ArrayList<DirectoryTask>();
+			long lastModified = attrs.lastModifiedTime().toMillis();
+			Manifest.Directory cached = (previousManifest == null) ? null
+					: previousManifest.lookup(basepath, lastModified);
+			try {
+				if (cached != null)
+					reuse(cached, subtasks);
+				else
+					list(subtasks);
+				if (manifest != null) {
+					/*
+					 * Modification times have a coarse resolution on some file
+					 * systems (two seconds on FAT), so that a directory
+					 * modified during this scan could keep the recorded time.
+					 */
+					if (lastModified >= scanStart - mtimeResolution)
+						lastModified = Manifest.UNKNOWN_TIME;
+					manifest.record(basepath, lastModified, record);
+				}
+			} catch (NoSuchAlgorithmException e) {
+				throw new ScanException(e);
+			} catch (UnsupportedEncodingException e) {
+				throw new ScanException(e);
+			} catch (IOException e) {
+				logger.warning("Failed to read directory '" + dir + "' (" + e
+						+ ").");
+			}
+			invokeAll(subtasks);
+		}
+
+		/**
+		 * Adds the items found in this subtree to the collections. Every run
+		 * of items between subdirectories is added in bulk.
+		 * 
+		 * @param parent
+		 *            the trie node of the parent directory.
+		 * @throws IOException
+		 * @throws SecurityException
+		 */
+		void merge(DirectoryTrie.Node parent) throws SecurityException,
+				IOException {
+			DirectoryTrie.Node node = trie.getChild(parent, dir.getFileName()
+					.toString());
+			int start = 0, l = entries.size();
+			for (int i = 0; i <= l; i++) {
+				Object e = (i < l) ? entries.get(i) : null;
+				if (e instanceof Item)
+					continue;
+				if (i > start) {
+					@SuppressWarnings("unchecked")
+					List<Item> items = (List<Item>) (List<?>) entries.subList(
+							start, i);
+					getCollection(node).addItems(node, items);
+				}
+				start = i + 1;
+				if (e != null)
+					((DirectoryTask) e).merge(node);
+			}
 		}
 	}
 
 	/**
-	 * Checks if the file is a PDF file.
+	 * Returns the collection of a directory, and reports it to the scan
+	 * listener if it was created by this call.
 	 * 
-	 * @param file
-	 *            the file to check.
-	 * @return true if pdf file; false otherwise.
+	 * @param node
+	 *            the trie node of the directory.
+	 * @return the collection.
+	 * @throws IOException
+	 * @throws SecurityException
 	 */
-	private boolean isPDF(File file) {
-		ArrayList<String> extGroup = new ArrayList<String>();
-		extGroup.add("pdf");
-		extGroup.add("PDF");
-		return hasExtension(file, extGroup);
+	private Collection getCollection(DirectoryTrie.Node node)
+			throws SecurityException, IOException {
+		int n = collections.size();
+		Collection c = trie.getCollection(node);
+		statistics.setTruncatedNames(trie.getTruncatedNames());
+		if (collections.size() != n) {
+			statistics.collections.incrementAndGet();
+			if (listener != null)
+				listener.collectionFound(c.getName());
+		}
+		return c;
 	}
 
 	/**
-	 * Checks if the file is an AZW file.
+	 * Reports the progress of the scan to the listener, at most once in every
+	 * reporting interval unless forced.
 	 * 
-	 * @param file
-	 *            the file to check.
-	 * @return true if azw file; false otherwise.
+	 * @param force
+	 *            true to report regardless of the interval.
 	 */
-	private boolean isAZW(File file) {
-		ArrayList<String> extGroup = new ArrayList<String>();
-		extGroup.add("azw");
-		extGroup.add("azw1");
-		extGroup.add("AZW");
-		extGroup.add("AZW1");
-		return hasExtension(file, extGroup);
+	private void reportProgress(boolean force) {
+		if (listener == null)
+			return;
+		long now = System.nanoTime();
+		long last = lastReport.get();
+		if (!force
+				&& (now - last < reportInterval || !lastReport
+						.compareAndSet(last, now)))
+			return;
+		listener.scanProgress(statistics.getDirectories(),
+				statistics.getFiles(), statistics.getCollections());
 	}
 
 	/**
-	 * Generates a collection name from the supplied directory.
+	 * Reads the basic attributes of a directory entry, following symbolic
+	 * links.
 	 * 
-	 * @param currentDir
-	 *            the directory path to process.
-	 * @return a collection name which corresponds to the directory.
-	 */
-	private String getCollectionName(String currentDir) {
-		if (currentDir != null) {
-			int l = currentDir.length();
-			if (l > maxlengthCollectionName) {
-				currentDir = currentDir.substring(0,
-						maxlengthCollectionName - 3);
-				currentDir += "...";
-				logger.info("Collection name too long. Shortening to '"
-						+ currentDir + "' ...");
-			} else {
-				// remove trailing '/' from collection name
-				int i = currentDir.lastIndexOf('/');
-				if (i != -1 && i == (l - 1)) {
-					currentDir = currentDir.substring(0, i);
-				}
-			}
+	 * @param p
+	 *            the directory entry.
+	 * @return the attributes, or null if they could not be read.
+	 */
+	private BasicFileAttributes readAttributes(Path p) {
+		try {
+			return Files.readAttributes(p, BasicFileAttributes.class);
+		} catch (IOException e) {
+			logger.warning("Failed to read '" + p + "' (" + e
+					+ "). Skipping file...");
+			return null;
 		}
-		return currentDir;
 	}
 
 	/**
-	 * This processes a file for inclusion in the KDX collection. The name of
-	 * the collection is determined by a path relative to the {@code documents/}
-	 * directory at KDX mount point.
+	 * Processes the supplied top-level directories using a fork/join pool. This
+	 * is also used for incremental scans, regardless of the number of threads.
 	 * 
-	 * @param file
-	 *            the file to process.
-	 * @param currentDir
-	 *            the current directory being processed.
-	 * @return
-	 * @throws NoSuchAlgorithmException
+	 * @param dirs
+	 *            the directories directly under the documents root.
 	 * @throws IOException
-	 * @throws SecurityException
+	 * @throws NoSuchAlgorithmException
 	 */
-	private int processFile(File file, String currentDir)
-			throws NoSuchAlgorithmException, SecurityException, IOException {
-		Item item = null;
-		if (isPDF(file)) {
-			item = processPDF(file, currentDir);
-		} else {
-			if (isAZW(file)) {
-				item = processAZW(file);
-			}
+	private void processParallel(ArrayList<Path> dirs) throws IOException,
+			NoSuchAlgorithmException {
+		ArrayList<DirectoryTask> tasks = new ArrayList<DirectoryTask>();
+		for (Path p : dirs) {
+			BasicFileAttributes attrs = readAttributes(p);
+			if (attrs != null)
+				tasks.add(new DirectoryTask(null, p, attrs, ""));
 		}
-		if (item != null) {
-			String collectionName = getCollectionName(currentDir);
-			if (collectionName != null) {
-				Collection currentCollection = collections.get(collectionName);
-				if (currentCollection == null) {
-					currentCollection = new Collection();
-					currentCollection.setName(collectionName);
-				}
-				currentCollection.addItem(item);
-				collections.put(collectionName, currentCollection);
+		ForkJoinPool pool = getPool();
+		try {
+			for (DirectoryTask t : tasks)
+				pool.execute(t);
+			for (DirectoryTask t : tasks) {
+				t.join();
+				t.merge(trie.getRoot());
 			}
+		} catch (ScanException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof NoSuchAlgorithmException)
+				throw (NoSuchAlgorithmException) cause;
+			throw (IOException) cause;
 		}
-		return 0;
 	}
 
 	/**
-	 * Process the file, or processes all of the files and directories under the
-	 * supplied directory.
+	 * Returns the subdirectories of the supplied directory, in the order of
+	 * the directory listing.
 	 * 
-	 * @param file
-	 *            the current file, or directory to process.
-	 * @param basepath
-	 *            the current path relative to KDX mount point.
+	 * @param dir
+	 *            the directory to list.
+	 * @return the subdirectories.
 	 * @throws IOException
-	 * @throws NoSuchAlgorithmException
 	 */
-	private void processFileTree(File file, String basepath)
-			throws IOException, NoSuchAlgorithmException {
-		if (file.isDirectory()) {
-			StringBuffer buf = new StringBuffer(basepath);
-			buf.append(file.getName());
-			buf.append('/');
-			String[] children = file.list();
-			if (children != null) {
-				for (int i = 0; i < children.length; i++) {
-					processFileTree(new File(file, children[i]), buf.toString());
-				}
+	private ArrayList<Path> listDirectories(Path dir) throws IOException {
+		ArrayList<Path> dirs = new ArrayList<Path>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+		try {
+			for (Path p : stream) {
+				BasicFileAttributes attrs = readAttributes(p);
+				if (attrs != null && attrs.isDirectory())
+					dirs.add(p);
 			}
-		} else {
-			processFile(file, basepath);
+		} finally {
+			stream.close();
 		}
+		return dirs;
 	}
 
 	/**
@@ -384,20 +875,21 @@ public class Manager {
 	 * uncollectible, and hence, are not considered for inclusion in
 	 * collections. This keeps the collection name shorter.
 	 * 
-	 * @param docsRootPath
-	 *            the path to documents root directory
+	 * @param docsRoot
+	 *            the documents root directory
 	 * @throws IOException
 	 * @throws NoSuchAlgorithmException
 	 */
-	private void processRoot(String docsRootPath)
-			throws NoSuchAlgorithmException, IOException {
-		File docsRoot = new File(docsRootPath);
-		String[] children = docsRoot.list();
-		if (children != null) {
-			for (int i = 0; i < children.length; i++) {
-				File f = new File(docsRoot, children[i]);
-				if (f.isDirectory())
-					processFileTree(f, "");
+	private void processRoot(Path docsRoot) throws NoSuchAlgorithmException,
+			IOException {
+		ArrayList<Path> dirs = listDirectories(docsRoot);
+		if (threads > 1 || manifest != null) {
+			processParallel(dirs);
+		} else {
+			for (Path p : dirs) {
+				if (cancelled)
+					break;
+				processFileTree(p, "", false);
 			}
 		}
 	}
@@ -405,35 +897,31 @@ public class Manager {
 	/**
 	 * Checks if the supplied directory is a Kindle device file system.
 	 * 
-	 * @param file
+	 * @param root
 	 *            the Kindle device mount point.
 	 * @return returns true if the mount point has Kindle device file system;
 	 *         otherwise false.
+	 * @throws IOException
 	 */
-	private boolean isKindleFS(File file) {
+	private boolean isKindleFS(Path root) throws IOException {
 		byte v = 0x00;
-		String[] children = file.list();
-		if (children != null) {
-			for (int i = 0; i < children.length; i++) {
-				File f = new File(file, children[i]);
-				if (f.isDirectory()) {
-					if (((v & 0x01) == 0) && "audible".equals(children[i])) {
-						v |= 0x01;
-						continue;
-					}
-					if (((v & 0x02) == 0) && "documents".equals(children[i])) {
-						v |= 0x02;
-						continue;
-					}
-					if (((v & 0x04) == 0) && "music".equals(children[i])) {
-						v |= 0x04;
-						continue;
-					}
-					if (((v & 0x08) == 0) && "system".equals(children[i])) {
-						v |= 0x08;
-						continue;
-					}
-				}
+		for (Path p : listDirectories(root)) {
+			String name = p.getFileName().toString();
+			if (((v & 0x01) == 0) && "audible".equals(name)) {
+				v |= 0x01;
+				continue;
+			}
+			if (((v & 0x02) == 0) && "documents".equals(name)) {
+				v |= 0x02;
+				continue;
+			}
+			if (((v & 0x04) == 0) && "music".equals(name)) {
+				v |= 0x04;
+				continue;
+			}
+			if (((v & 0x08) == 0) && "system".equals(name)) {
+				v |= 0x08;
+				continue;
 			}
 		}
 		return (v == 0x0F);
@@ -447,11 +935,11 @@ public class Manager {
 	 * @throws IOException
 	 */
 	public boolean process() throws NoSuchAlgorithmException, IOException {
-		File kdxRoot = new File(kdxRootPath);
-		if (!kdxRoot.isDirectory()) {
-			logger.severe("Supplied path '" + kdxRoot.getPath()
+		Path kdxRoot = Paths.get(kdxRootPath);
+		if (!Files.isDirectory(kdxRoot)) {
+			logger.severe("Supplied path '" + kdxRoot
 					+ "' is not a directory.");
-			if (cli)
+			if (exitOnError)
 				System.exit(1);
 			else
 				return false;
@@ -462,32 +950,628 @@ public class Manager {
 		} else {
 			logger.severe("Supplied path is not a Kindle "
 					+ "device root directory...");
-			if (cli)
+			if (exitOnError)
 				System.exit(1);
 			else
 				return false;
 
 		}
-		processRoot(kdxRootPath + "/documents");
-		sortedCollection = new TreeSet<String>(collections.keySet());
+		if (manifestFile != null) {
+			previousManifest = Manifest.load(manifestFile);
+			manifest = new Manifest();
+		} else if (retainManifest) {
+			// the manifest of a cancelled scan is incomplete
+			previousManifest = cancelled ? null : manifest;
+			manifest = new Manifest();
+		}
+		if (manifest != null) {
+			scanStart = System.currentTimeMillis();
+			long t = Files.getLastModifiedTime(getDocumentsRoot()).toMillis();
+			documentsModified = (t >= scanStart - mtimeResolution) ? Manifest.UNKNOWN_TIME
+					: t;
+		}
+		collections.clear();
+		trie = new DirectoryTrie(collections, maxlengthCollectionName,
+				getDocumentsRoot());
+		cancelled = false;
+		if (duplicates != null)
+			duplicates.clear();
+		statistics.reset();
+		statistics.register();
+		lastReport.set(System.nanoTime());
+		statistics.startWalk();
+		processRoot(kdxRoot.resolve("documents"));
+		statistics.endWalk();
+		reportProgress(true);
+		if (cancelled) {
+			// the manifest would not describe the whole tree
+			logger.warning("Scan cancelled. Only " + collections.size()
+					+ " collections were found.");
+			previousManifest = null;
+		} else if (manifestFile != null) {
+			manifest.save(manifestFile);
+			logger.info("Saved manifest of " + manifest.size()
+					+ " directories to '" + manifestFile + "' ...");
+			previousManifest = null;
+		}
+		if (duplicates != null && !cancelled)
+			duplicates.find();
+		if (metadataCache != null) {
+			try {
+				metadataCache.save();
+			} catch (IOException e) {
+				logger.warning("Failed to save meta-data cache (" + e + ")");
+			}
+		}
+		for (Collection c : collections.values())
+			c.trimToSize();
+		if (mergeFile != null)
+			merge(mergeFile);
+		long start = System.nanoTime();
+		buildIndex(true);
+		statistics.addSortTime(System.nanoTime() - start);
+		searchIndex = searchable ? new SearchIndex(getSortedCollections())
+				: null;
 		return true;
 	}
 
 	/**
-	 * Save the collection to a file.
+	 * Returns the {@code documents/} directory of the Kindle device.
+	 * 
+	 * @return the documents root directory.
+	 */
+	Path getDocumentsRoot() {
+		return Paths.get(kdxRootPath).resolve("documents");
+	}
+
+	/**
+	 * Returns the path of a directory relative to the documents root, in the
+	 * form used for collection names.
+	 * 
+	 * @param dir
+	 *            a directory under the documents root.
+	 * @return the relative path, with a trailing '/', or an empty string for
+	 *         the documents root itself.
+	 */
+	private String getBasepath(Path dir) {
+		StringBuffer buf = new StringBuffer();
+		for (Path p : getDocumentsRoot().relativize(dir)) {
+			if (p.toString().length() > 0) {
+				buf.append(p);
+				buf.append('/');
+			}
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Adds a file, or all of the files under a directory, which has been
+	 * created since the documents tree was processed. Files that are already
+	 * part of a collection are not added again.
+	 * 
+	 * @param p
+	 *            the file or directory under the documents root.
+	 * @throws NoSuchAlgorithmException
+	 * @throws IOException
+	 */
+	public void addPath(Path p) throws NoSuchAlgorithmException, IOException {
+		Path parent = p.getParent();
+		if (parent == null || !p.startsWith(getDocumentsRoot()))
+			return;
+		BasicFileAttributes attrs = readAttributes(p);
+		if (attrs == null)
+			return;
+		String basepath = getBasepath(parent);
+		if (attrs.isDirectory()) {
+			processFileTree(p, basepath, true);
+			DirectoryTrie.Node node = trie.findNode(getBasepath(p));
+			if (node != null)
+				trie.findCollections(node, unsortedItems);
+		} else if (basepath.length() > 0) {
+			// ebooks at the documents root are uncollectible
+			Item item = createItem(p, basepath);
+			if (item == null)
+				return;
+			DirectoryTrie.Node node = trie.getNode(basepath);
+			Collection c = getCollection(node);
+			if (c.indexOf(node, item.getName()) != -1)
+				return;
+			c.addItem(node, item);
+			unsortedItems.add(c);
+		}
+		// the index is built again when needed, once for many changes
+		index = null;
+		searchIndex = null;
+	}
+
+	/**
+	 * Removes a file, or all of the files under a directory, which has been
+	 * deleted since the documents tree was processed. Collections that become
+	 * empty are removed.
+	 * 
+	 * @param p
+	 *            the file or directory under the documents root.
+	 */
+	public void removePath(Path p) {
+		Path parent = p.getParent();
+		if (parent == null || !p.startsWith(getDocumentsRoot()))
+			return;
+		DirectoryTrie.Node parentNode = trie.findNode(getBasepath(parent));
+		DirectoryTrie.Node node = trie.findNode(getBasepath(p));
+		String name = p.getFileName().toString();
+
+		/*
+		 * Only the collections of the parent directory, and of the removed
+		 * directory and its subdirectories, can hold the removed items.
+		 */
+		HashSet<Collection> affected = new HashSet<Collection>();
+		Collection c = (parentNode == null) ? null : trie
+				.findCollection(parentNode);
+		if (c != null)
+			c.removeItems(parentNode, name);
+		if (node != null) {
+			trie.findCollections(node, affected);
+			for (Collection a : affected)
+				a.removeItems(node, null);
+		}
+		if (c != null)
+			affected.add(c);
+		HashSet<Collection> removed = new HashSet<Collection>();
+		for (Collection a : affected) {
+			if (a.size() == 0 && !a.isImported()
+					&& collections.get(a.getName()) == a) {
+				collections.remove(a.getName());
+				removed.add(a);
+			}
+		}
+		if (removed.isEmpty() && c == null && node == null)
+			return; // not collected
+		// the trie may refer to the removed collections
+		trie.forgetCollections(removed);
+		statistics.setTruncatedNames(trie.getTruncatedNames());
+		unsortedItems.removeAll(removed);
+		index = null;
+		searchIndex = null;
+	}
+
+	/**
+	 * Enables incremental scanning. The manifest of the previous scan is read
+	 * from the supplied file, and only the directories which have changed
+	 * since then are listed. The manifest is updated after every scan.
+	 * 
+	 * @param manifestFile
+	 *            the manifest file, or null to scan every directory.
+	 */
+	public void setManifest(String manifestFile) {
+		this.manifestFile = manifestFile;
+	}
+
+	/**
+	 * Finds the documents with identical contents while processing, e.g.,
+	 * copies of the same book in several directories.
+	 * 
+	 * @param find
+	 *            true to find duplicates.
+	 * @see #getDuplicates()
+	 */
+	public void setFindDuplicates(boolean find) {
+		duplicates = find ? new DuplicateFinder() : null;
+	}
+
+	/**
+	 * Returns the duplicates found by the last scan.
+	 * 
+	 * @return the duplicates, or null unless finding duplicates.
+	 * @see #setFindDuplicates(boolean)
+	 */
+	public DuplicateFinder getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * Keeps the manifest of every scan in memory, so that subsequent scans
+	 * are incremental without a manifest file, and so that changes to the
+	 * documents tree can be detected (see {@link #isUpToDate()}).
+	 * 
+	 * @param retain
+	 *            true to keep the manifest in memory.
+	 */
+	public void setRetainManifest(boolean retain) {
+		this.retainManifest = retain;
+	}
+
+	/**
+	 * Checks if the collections of the last scan are still current, i.e., if
+	 * no directory of the documents tree has been modified since. Only the
+	 * modification times of the directories are read. This requires a
+	 * manifest, from a file or retained in memory.
+	 * 
+	 * @return true if the documents tree is unchanged; false if it may have
+	 *         changed, or if there was no complete scan.
+	 * @see #setRetainManifest(boolean)
+	 */
+	public boolean isUpToDate() {
+		if (manifest == null || cancelled
+				|| documentsModified == Manifest.UNKNOWN_TIME)
+			return false;
+		try {
+			if (Files.getLastModifiedTime(getDocumentsRoot()).toMillis() != documentsModified)
+				return false;
+		} catch (IOException e) {
+			return false;
+		}
+		return manifest.isCurrent(getDocumentsRoot());
+	}
+
+	/**
+	 * Merges the collections of an existing collections file, such as the
+	 * {@code system/collections.json} file of the device, with the generated
+	 * collections. The file is streamed, one collection at a time.
+	 * 
+	 * <p>
+	 * Generated collections keep their items, but take the last access time
+	 * recorded in the file. The other collections in the file, such as those
+	 * created on the device, are kept as they are. Since these cannot be told
+	 * apart from collections generated by an earlier run, collections of
+	 * directories that have since been removed are also kept. The collection
+	 * index is built again when it is next needed.
+	 * 
+	 * @param collectionsFile
+	 *            the existing collections file. Nothing is merged if it does
+	 *            not exist.
+	 * @throws IOException
+	 *             if the file could not be read, or is malformed. The
+	 *             collections read until then are merged.
+	 * @see CollectionsReader
+	 */
+	public void merge(String collectionsFile) throws IOException {
+		Reader in;
+		try {
+			in = new InputStreamReader(new FileInputStream(collectionsFile),
+					"UTF-8");
+		} catch (FileNotFoundException e) {
+			logger.info("No collections to merge at '" + collectionsFile
+					+ "' ...");
+			return;
+		}
+		try {
+			CollectionsReader r = new CollectionsReader(in);
+			while (r.next()) {
+				String name = r.getName();
+				String locale = null;
+				int i = name.lastIndexOf('@');
+				if (i != -1) {
+					locale = name.substring(i + 1);
+					name = name.substring(0, i);
+				}
+				// generated collections are keyed by their name alone
+				String key = "en-US".equals(locale) ? name : r.getName();
+				Collection c = collections.get(key);
+				if (c == null || c.isImported()) {
+					c = new Collection();
+					c.setName(name);
+					c.setLocale(locale);
+					c.setImported(true);
+					for (String item : r.getItems())
+						c.addKey(item);
+					c.trimToSize();
+					c.sortItems(order);
+					collections.put(key, c);
+					if (logger.isLoggable(Level.FINE))
+						logger.fine("Keeping collection '" + r.getName()
+								+ "' ...");
+				}
+				if (r.getLastAccess() != null)
+					c.setLastAccess(r.getLastAccess());
+			}
+		} finally {
+			in.close();
+			index = null;
+			searchIndex = null;
+		}
+	}
+
+	/**
+	 * Merges the collections of an existing collections file after every
+	 * scan.
+	 * 
+	 * @param collectionsFile
+	 *            the existing collections file, or null to only write the
+	 *            generated collections.
+	 * @see #merge(String)
+	 */
+	public void setMergeFile(String collectionsFile) {
+		this.mergeFile = collectionsFile;
+	}
+
+	/**
+	 * Sets whether the search index of the collections is built at the end of
+	 * every scan, so that the first search is fast. Otherwise, it is only
+	 * built when the collections are first searched.
+	 * 
+	 * @param searchable
+	 *            true to build the search index after every scan.
+	 * @see #getCollectionModel(String)
+	 */
+	public void setSearchable(boolean searchable) {
+		this.searchable = searchable;
+	}
+
+	/**
+	 * Sets the listener that receives the progress of subsequent scans.
+	 * 
+	 * @param listener
+	 *            the listener, or null for no progress reports.
+	 */
+	public void setScanListener(ScanListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Asks the current scan to stop. This may be called from any thread. The
+	 * scan stops once the directories being visited have been read, and
+	 * {@link #process()} then returns the collections found until then.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Was the last scan cancelled before visiting the whole tree?
+	 * 
+	 * @return true if cancelled; otherwise false.
+	 * @see #cancel()
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns the number of directories visited by the last scan.
+	 * 
+	 * @return the number of directories.
+	 */
+	public long getDirectoriesVisited() {
+		return statistics.getDirectories();
+	}
+
+	/**
+	 * Returns the number of files visited by the last scan.
+	 * 
+	 * @return the number of files.
+	 */
+	public long getFilesVisited() {
+		return statistics.getFiles();
+	}
+
+	/**
+	 * Returns the number of collections found by the last scan.
+	 * 
+	 * @return the number of collections.
+	 */
+	public int getCollectionsFound() {
+		return statistics.getCollections();
+	}
+
+	/**
+	 * Returns the statistics of the last scan, and of the collections saved
+	 * since. These are also exposed over JMX once a scan has started.
+	 * 
+	 * @return the statistics.
+	 * @see ScanStatistics#OBJECT_NAME
+	 */
+	public ScanStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Enables caching of the meta-data read from document headers, so that
+	 * the headers of unchanged documents are not read again by subsequent
+	 * scans. The cache is used by the ASIN identified formats registered at
+	 * the time of the call, and is saved after every scan.
+	 * 
+	 * @param cacheFile
+	 *            the cache file, or null to always read the headers.
+	 * @see MetadataCache
+	 */
+	public void setMetadataCache(String cacheFile) {
+		setMetadataCache((cacheFile == null) ? null : new MetadataCache(
+				cacheFile));
+	}
+
+	/**
+	 * Enables caching of the meta-data read from document headers, using a
+	 * cache which may be shared with other managers, e.g., those of the other
+	 * devices processed in the same batch.
+	 * 
+	 * @param cache
+	 *            the meta-data cache, or null to always read the headers.
+	 * @see #setMetadataCache(String)
+	 */
+	public void setMetadataCache(MetadataCache cache) {
+		metadataCache = cache;
+		for (String ext : new String[] { "azw", "azw1" }) {
+			Format f = formats.get(ext);
+			if (f instanceof AsinFormat)
+				((AsinFormat) f).setMetadataCache(metadataCache);
+		}
+	}
+
+	/**
+	 * Save the collection to a file. The collections are written in UTF-8.
+	 * 
+	 * <p>
+	 * The file is left untouched if it already holds the collections.
+	 * Otherwise, the collections are written to a temporary file in the same
+	 * directory, which is synchronised with the device and then renamed to
+	 * the output file, so that the output file is never left half written.
 	 * 
 	 * @param outputFile
-	 *            the output file to write to
+	 *            the output file to write to, or null for standard output
+	 * @return true if the collections were written; false if the output file
+	 *         was unchanged.
 	 * @throws IOException
 	 */
-	public void save(String outputFile) throws IOException {
-		if (outputFile != null && outputFile.length() > 0) {
-			FileWriter fstream = new FileWriter(outputFile);
-			BufferedWriter out = new BufferedWriter(fstream);
-			out.write(this.toString());
+	public boolean save(String outputFile) throws IOException {
+		return save(outputFile, null);
+	}
+
+	/**
+	 * Save the collection to a file, and keep a copy of the previous file as
+	 * a backup. Nothing is written, and no backup is made, if the file
+	 * already holds the collections. The output file keeps its permissions.
+	 * 
+	 * @param outputFile
+	 *            the output file to write to, or null for standard output
+	 * @param backupFile
+	 *            the file to copy the previous output file to, before the new
+	 *            collections replace it, or null for no backup.
+	 * @return true if the collections were written; false if the output file
+	 *         was unchanged.
+	 * @throws IOException
+	 *             if the collections, or the backup, could not be written. The
+	 *             output file is then unchanged.
+	 * @see #save(String)
+	 */
+	public boolean save(String outputFile, String backupFile)
+			throws IOException {
+		long start = System.nanoTime();
+		if (outputFile == null || outputFile.length() == 0) {
+			CountingOutputStream counter = new CountingOutputStream(System.out);
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+					counter, "UTF-8"));
+			write(out);
 			out.flush();
-		} else {
-			System.out.print(this.toString());
+			statistics.addSerialization(System.nanoTime() - start,
+					counter.count);
+			return true;
+		}
+
+		/*
+		 * The collections are serialised once, to be compared with the
+		 * output file and then written.
+		 */
+		Buffer buf = new Buffer();
+		Writer w = new OutputStreamWriter(buf, "UTF-8");
+		write(w);
+		w.flush();
+		statistics.addSerialization(System.nanoTime() - start, buf.size());
+		Path target = Paths.get(outputFile).toAbsolutePath();
+		if (isSaved(target, buf)) {
+			logger.info("Collections in '" + outputFile + "' are unchanged.");
+			return false;
+		}
+		boolean exists = Files.isRegularFile(target);
+		Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+		try {
+			FileOutputStream fos = new FileOutputStream(temp.toFile());
+			try {
+				buf.writeTo(fos);
+				fos.getFD().sync();
+			} finally {
+				fos.close();
+			}
+			if (exists) {
+				try {
+					Files.setPosixFilePermissions(temp,
+							Files.getPosixFilePermissions(target));
+				} catch (UnsupportedOperationException e) {
+					// not a POSIX file system, e.g., the FAT of the device
+				}
+				if (backupFile != null)
+					Files.copy(target, Paths.get(backupFile),
+							StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.COPY_ATTRIBUTES);
+			}
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if a file already holds the serialised collections. The file is
+	 * only read if the lengths match.
+	 * 
+	 * @param file
+	 *            the file to compare with.
+	 * @param buf
+	 *            the serialised collections.
+	 * @return true if the file holds the collections.
+	 * @throws IOException
+	 */
+	private boolean isSaved(Path file, Buffer buf) throws IOException {
+		if (!Files.isRegularFile(file) || Files.size(file) != buf.size())
+			return false;
+		InputStream in = new FileInputStream(file.toFile());
+		try {
+			byte[] b = new byte[8192];
+			int pos = 0, n;
+			while ((n = in.read(b)) != -1) {
+				if (!buf.regionEquals(pos, b, n))
+					return false;
+				pos += n;
+			}
+			return pos == buf.size();
+		} finally {
+			in.close();
+		}
+	}
+
+	/*
+	 * Holds the serialised collections, and compares them without copying.
+	 */
+	private static class Buffer extends ByteArrayOutputStream {
+		Buffer() {
+			super(8192);
+		}
+
+		boolean regionEquals(int pos, byte[] b, int len) {
+			if (pos + len > count)
+				return false;
+			for (int i = 0; i < len; i++)
+				if (buf[pos + i] != b[i])
+					return false;
+			return true;
+		}
+	}
+
+	/*
+	 * Counts the bytes written to it, and passes them on to the underlying
+	 * stream, or discards them if there is none.
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		private final OutputStream out;
+		long count = 0;
+
+		CountingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (out != null)
+				out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (out != null)
+				out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (out != null)
+				out.flush();
 		}
 	}
 
@@ -496,18 +1580,23 @@ public class Manager {
 	 * 
 	 * @param path
 	 *            the path to the documents
-	 * @param cli
-	 *            true if command line; false if GUI
+	 * @param exitOnError
+	 *            true to exit if the path is not a Kindle device root, as the
+	 *            command line does; false to only fail the scan.
 	 * @throws IOException
 	 * @throws SecurityException
 	 */
-	public Manager(String path, boolean cli) throws SecurityException,
+	public Manager(String path, boolean exitOnError) throws SecurityException,
 			IOException {
 		collections = new HashMap<String, Collection>();
-		checksum = new Checksum();
+		formats = FormatRegistry.createDefault();
+		formats.setStatistics(statistics);
 		kdxRootPath = path;
-		this.cli = cli;
+		this.exitOnError = exitOnError;
+		threads = 1;
 		maxlengthCollectionName = maxKDXDisplayLen;
+		trie = new DirectoryTrie(collections, maxlengthCollectionName,
+				getDocumentsRoot());
 	}
 
 	/**
@@ -519,22 +1608,52 @@ public class Manager {
 	 *            the path to the documents.
 	 * @param maxlen
 	 *            the maximum length of a collection name.
-	 * @param cli
-	 *            true if command line; false if GUI
+	 * @param exitOnError
+	 *            true to exit if the path is not a Kindle device root, as the
+	 *            command line does; false to only fail the scan.
 	 * @throws IOException
 	 * @throws SecurityException
 	 */
-	public Manager(String path, int maxlen, boolean cli)
+	public Manager(String path, int maxlen, boolean exitOnError)
 			throws SecurityException, IOException {
 		collections = new HashMap<String, Collection>();
-		checksum = new Checksum();
+		formats = FormatRegistry.createDefault();
+		formats.setStatistics(statistics);
 		kdxRootPath = path;
-		this.cli = cli;
+		this.exitOnError = exitOnError;
+		threads = 1;
 		maxlengthCollectionName = maxlen;
+		trie = new DirectoryTrie(collections, maxlengthCollectionName,
+				getDocumentsRoot());
 		if (maxlen > maxKDXDisplayLen) {
 			logger.info("Collection name too long; "
 					+ "may not display properly on KDX.");
 		}
 	}
+
+	/**
+	 * Initialises a KDX collection manager for the supplied directory with
+	 * collection name length specification, which scans the documents tree
+	 * using the specified number of threads. The collections generated are
+	 * identical to those of a single-threaded scan.
+	 * 
+	 * @param path
+	 *            the path to the documents.
+	 * @param maxlen
+	 *            the maximum length of a collection name.
+	 * @param threads
+	 *            the number of threads used for scanning.
+	 * @param exitOnError
+	 *            true to exit if the path is not a Kindle device root, as the
+	 *            command line does; false to only fail the scan.
+	 * @throws IOException
+	 * @throws SecurityException
+	 */
+	public Manager(String path, int maxlen, int threads,
+			boolean exitOnError)
+			throws SecurityException, IOException {
+		this(path, maxlen, exitOnError);
+		this.threads = threads < 1 ? 1 : threads;
+	}
 }
 // Created 24 October 2010, 7:50pm
\ No newline at end of file
@@ -0,0 +1,324 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Encapsulates a scan manifest, which records the modification time of every
+ * directory under the {@code documents/} directory, and the subdirectories and
+ * items found in it. Since adding, removing or renaming an entry updates the
+ * modification time of the directory that contains it, a directory whose
+ * modification time is unchanged since the previous scan need not be listed
+ * again; its entries are taken from the manifest instead.
+ * 
+ * <p>
+ * Files that were not collected are recorded by name, so that they are
+ * classified again on the next scan. Otherwise, documents of a format
+ * registered since (e.g., with {@code -e}), or documents that could not be
+ * read while they were being copied, would stay hidden for as long as their
+ * directory is unchanged.
+ * 
+ * @author gyaikhom
+ */
+public class Manifest {
+	private static final Logger logger = Logger.getLogger("com.yaikhom.kdx");
+	private static final int MAGIC = 0x4b445847; // "KDXG"
+	private static final int VERSION = 2;
+	private static final byte TAG_DIRECTORY = 0;
+	private static final byte TAG_ITEM = 1;
+	private static final byte TAG_FILE = 2;
+
+	/**
+	 * Modification time recorded for directories that were modified too
+	 * recently to be trusted. These are always listed on the next scan.
+	 */
+	public static final long UNKNOWN_TIME = -1L;
+
+	/**
+	 * Encapsulates a file that was not collected.
+	 */
+	public static class Unclassified {
+		private final String name;
+
+		public Unclassified(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	/**
+	 * Encapsulates the manifest record of a single directory.
+	 */
+	public static class Directory {
+		private long lastModified;
+		private List<Object> entries;
+
+		public Directory(long lastModified, List<Object> entries) {
+			this.lastModified = lastModified;
+			this.entries = entries;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Returns the subdirectory names (as {@code String}), the items (as
+		 * {@link Item}) and the files that were not collected (as
+		 * {@link Unclassified}) in the order of the directory listing.
+		 * 
+		 * @return the directory entries.
+		 */
+		public List<Object> getEntries() {
+			return entries;
+		}
+	}
+
+	/*
+	 * Directory records, keyed by the path relative to the documents root.
+	 */
+	private HashMap<String, Directory> directories;
+
+	/**
+	 * Initialises an empty manifest.
+	 */
+	public Manifest() {
+		directories = new HashMap<String, Directory>();
+	}
+
+	/**
+	 * Returns the record of a directory, provided that the directory has not
+	 * been modified since it was recorded.
+	 * 
+	 * @param basepath
+	 *            the directory path relative to the documents root.
+	 * @param lastModified
+	 *            the current modification time of the directory.
+	 * @return the directory record, or null if the directory must be listed.
+	 */
+	public Directory lookup(String basepath, long lastModified) {
+		Directory d = directories.get(basepath);
+		if (d != null && d.lastModified != UNKNOWN_TIME
+				&& d.lastModified == lastModified)
+			return d;
+		return null;
+	}
+
+	/**
+	 * Records the entries of a directory.
+	 * 
+	 * @param basepath
+	 *            the directory path relative to the documents root.
+	 * @param lastModified
+	 *            the modification time of the directory.
+	 * @param entries
+	 *            the subdirectory names, items and files that were not
+	 *            collected, in listing order.
+	 */
+	public synchronized void record(String basepath, long lastModified,
+			List<Object> entries) {
+		directories.put(basepath, new Directory(lastModified, entries));
+	}
+
+	/**
+	 * Checks if every directory in the manifest still has the modification
+	 * time that was recorded.
+	 * 
+	 * @param docsRoot
+	 *            the documents root directory.
+	 * @return true if no directory has been modified; otherwise false.
+	 */
+	public synchronized boolean isCurrent(Path docsRoot) {
+		for (Map.Entry<String, Directory> e : directories.entrySet()) {
+			long lastModified = e.getValue().lastModified;
+			if (lastModified == UNKNOWN_TIME)
+				return false;
+			try {
+				if (Files.getLastModifiedTime(docsRoot.resolve(e.getKey()))
+						.toMillis() != lastModified)
+					return false;
+			} catch (IOException ex) {
+				return false; // removed
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of directories in the manifest.
+	 * 
+	 * @return the number of directories.
+	 */
+	public int size() {
+		return directories.size();
+	}
+
+	/**
+	 * Loads a manifest from a file. A missing, or unreadable, manifest results
+	 * in an empty manifest, so that every directory is listed.
+	 * 
+	 * @param manifestFile
+	 *            the manifest file.
+	 * @return the manifest.
+	 */
+	public static Manifest load(String manifestFile) {
+		Manifest m = new Manifest();
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(manifestFile)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				logger.info("Ignoring incompatible manifest '" + manifestFile
+						+ "' ...");
+				return m;
+			}
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String basepath = in.readUTF();
+				long lastModified = in.readLong();
+				int k = in.readInt();
+				ArrayList<Object> entries = new ArrayList<Object>(k);
+				for (int j = 0; j < k; j++) {
+					byte tag = in.readByte();
+					if (tag == TAG_DIRECTORY) {
+						entries.add(in.readUTF());
+					} else if (tag == TAG_FILE) {
+						entries.add(new Unclassified(in.readUTF()));
+					} else {
+						Item item = new Item();
+						item.setName(in.readUTF());
+						item.setType(in.readInt());
+						item.setKey(in.readUTF());
+						entries.add(item);
+					}
+				}
+				m.directories.put(basepath, new Directory(lastModified,
+						entries));
+			}
+		} catch (FileNotFoundException e) {
+			logger.info("No manifest found at '" + manifestFile
+					+ "'. Scanning all directories...");
+		} catch (IOException e) {
+			logger.warning("Failed to read manifest '" + manifestFile + "' ("
+					+ e + "). Scanning all directories...");
+			m.directories.clear();
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * Saves the manifest to a file. The manifest is written to a temporary
+	 * file in the same directory, which is then renamed to the manifest file,
+	 * so that an interrupted save leaves the previous manifest.
+	 * 
+	 * @param manifestFile
+	 *            the manifest file.
+	 * @throws IOException
+	 */
+	public void save(String manifestFile) throws IOException {
+		Path target = Paths.get(manifestFile).toAbsolutePath();
+		Path temp = Files.createTempFile(target.getParent(), target
+				.getFileName().toString(), ".tmp");
+		try {
+			FileOutputStream fos = new FileOutputStream(temp.toFile());
+			try {
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(fos));
+				write(out);
+				out.flush();
+				fos.getFD().sync();
+			} finally {
+				fos.close();
+			}
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(directories.size());
+		for (String basepath : directories.keySet()) {
+			Directory d = directories.get(basepath);
+			out.writeUTF(basepath);
+			out.writeLong(d.lastModified);
+			out.writeInt(d.entries.size());
+			for (Object e : d.entries) {
+				if (e instanceof Item) {
+					Item item = (Item) e;
+					out.writeByte(TAG_ITEM);
+					out.writeUTF(item.getName());
+					out.writeInt(item.getFileType());
+					out.writeUTF(item.getKey());
+				} else if (e instanceof Unclassified) {
+					out.writeByte(TAG_FILE);
+					out.writeUTF(((Unclassified) e).getName());
+				} else {
+					out.writeByte(TAG_DIRECTORY);
+					out.writeUTF((String) e);
+				}
+			}
+		}
+	}
+}
+// Created 16 October 2026, 8:36pm
@@ -0,0 +1,322 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.logging.Logger;
+
+/**
+ * Encapsulates a persistent cache of the meta-data derived from document
+ * headers, so that unchanged documents are not read again on subsequent scans.
+ * 
+ * <p>
+ * Entries are keyed by the absolute path of the document, and are valid for as
+ * long as the size and modification time of the document are unchanged. The
+ * path is used instead of the file key (inode), since the FAT file system of
+ * the Kindle does not have stable inode numbers across mounts. The cache file
+ * is only read when it is first needed, and entries which have not been used
+ * for {@link #EXPIRY} milliseconds are evicted when the cache is saved.
+ * 
+ * @author gyaikhom
+ */
+public class MetadataCache {
+	private static final Logger logger = Logger.getLogger("com.yaikhom.kdx");
+	private static final int MAGIC = 0x4b445843; // "KDXC"
+	private static final int VERSION = 1;
+
+	/**
+	 * Entries unused for this long are evicted (30 days).
+	 */
+	public static final long EXPIRY = 30L * 24 * 60 * 60 * 1000;
+
+	/*
+	 * Documents modified more recently than this are not cached, since a
+	 * further modification within the resolution of the modification time
+	 * would go unnoticed.
+	 */
+	private static final long MTIME_RESOLUTION = 2000;
+
+	/*
+	 * The last use of an entry is only recorded once this much time has
+	 * passed, so that a scan of unchanged documents does not rewrite the cache.
+	 */
+	private static final long USE_RESOLUTION = 24L * 60 * 60 * 1000;
+
+	/**
+	 * Encapsulates the cached meta-data of a single document.
+	 */
+	public static class Entry {
+		private long size;
+		private long lastModified;
+		private long lastUsed;
+		private int type;
+		private String key;
+
+		Entry(long size, long lastModified, long lastUsed, int type,
+				String key) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.lastUsed = lastUsed;
+			this.type = type;
+			this.key = key;
+		}
+
+		/**
+		 * Returns the item type of the document.
+		 * 
+		 * @return the item type.
+		 */
+		public int getType() {
+			return type;
+		}
+
+		/**
+		 * Returns the KDX collection key of the document.
+		 * 
+		 * @return the key, or null if the document is not collected.
+		 */
+		public String getKey() {
+			return key;
+		}
+	}
+
+	private String cacheFile;
+	private HashMap<String, Entry> entries = null; // loaded lazily
+	private boolean dirty = false;
+
+	/**
+	 * Initialises a meta-data cache, which is stored in the supplied file. The
+	 * file is not read until the cache is first used.
+	 * 
+	 * @param cacheFile
+	 *            the cache file.
+	 */
+	public MetadataCache(String cacheFile) {
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * Returns the default cache file, {@code kdxgen/metadata.cache} in the
+	 * user's cache directory ({@code $XDG_CACHE_HOME}, or {@code ~/.cache}).
+	 * 
+	 * @return the path of the default cache file.
+	 */
+	public static String getDefaultFile() {
+		String dir = System.getenv("XDG_CACHE_HOME");
+		if (dir == null || dir.length() == 0)
+			dir = System.getProperty("user.home") + File.separator + ".cache";
+		return dir + File.separator + "kdxgen" + File.separator
+				+ "metadata.cache";
+	}
+
+	/**
+	 * Returns the cached meta-data of a document, provided that the document
+	 * has not changed since it was cached.
+	 * 
+	 * @param file
+	 *            the document.
+	 * @param attrs
+	 *            the current attributes of the document.
+	 * @return the cached meta-data, or null if the document must be read.
+	 */
+	public synchronized Entry lookup(Path file, BasicFileAttributes attrs) {
+		if (entries == null)
+			load();
+		Entry e = entries.get(file.toAbsolutePath().toString());
+		if (e == null || e.size != attrs.size()
+				|| e.lastModified != attrs.lastModifiedTime().toMillis())
+			return null;
+		long now = System.currentTimeMillis();
+		if (now - e.lastUsed > USE_RESOLUTION) {
+			e.lastUsed = now;
+			dirty = true;
+		}
+		return e;
+	}
+
+	/**
+	 * Records the meta-data of a document.
+	 * 
+	 * @param file
+	 *            the document.
+	 * @param attrs
+	 *            the attributes of the document when it was read.
+	 * @param type
+	 *            the item type of the document.
+	 * @param key
+	 *            the KDX collection key, or null if the document is not
+	 *            collected.
+	 */
+	public synchronized void record(Path file, BasicFileAttributes attrs,
+			int type, String key) {
+		long now = System.currentTimeMillis();
+		long lastModified = attrs.lastModifiedTime().toMillis();
+		if (now - lastModified < MTIME_RESOLUTION)
+			return;
+		if (entries == null)
+			load();
+		entries.put(file.toAbsolutePath().toString(), new Entry(attrs.size(),
+				lastModified, now, type, key));
+		dirty = true;
+	}
+
+	/**
+	 * Returns the number of entries in the cache.
+	 * 
+	 * @return the number of entries.
+	 */
+	public synchronized int size() {
+		if (entries == null)
+			load();
+		return entries.size();
+	}
+
+	/**
+	 * Reads the cache file. A missing, or unreadable, cache file results in an
+	 * empty cache.
+	 */
+	private void load() {
+		entries = new HashMap<String, Entry>();
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(cacheFile)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				logger.info("Ignoring incompatible meta-data cache '"
+						+ cacheFile + "' ...");
+				return;
+			}
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String path = in.readUTF();
+				long size = in.readLong();
+				long lastModified = in.readLong();
+				long lastUsed = in.readLong();
+				int type = in.readInt();
+				String key = in.readBoolean() ? in.readUTF() : null;
+				entries.put(path, new Entry(size, lastModified, lastUsed,
+						type, key));
+			}
+		} catch (FileNotFoundException e) {
+			logger.info("No meta-data cache found at '" + cacheFile + "' ...");
+		} catch (IOException e) {
+			logger.warning("Failed to read meta-data cache '" + cacheFile
+					+ "' (" + e + "). Reading all document headers...");
+			entries.clear();
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves the cache, if it has changed since it was read. Expired entries
+	 * are evicted first. The cache is written to a temporary file in the same
+	 * directory, which is then renamed to the cache file, so that an
+	 * interrupted save leaves the previous cache.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		if (entries == null)
+			return; // never used
+		long now = System.currentTimeMillis();
+		Iterator<Entry> i = entries.values().iterator();
+		while (i.hasNext()) {
+			if (now - i.next().lastUsed > EXPIRY) {
+				i.remove();
+				dirty = true;
+			}
+		}
+		if (!dirty)
+			return;
+		Path target = Paths.get(cacheFile).toAbsolutePath();
+		Files.createDirectories(target.getParent());
+		Path temp = Files.createTempFile(target.getParent(), target
+				.getFileName().toString(), ".tmp");
+		try {
+			FileOutputStream fos = new FileOutputStream(temp.toFile());
+			try {
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(fos));
+				write(out);
+				out.flush();
+				fos.getFD().sync();
+			} finally {
+				fos.close();
+			}
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		dirty = false;
+	}
+
+	private void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(entries.size());
+		for (String path : entries.keySet()) {
+			Entry e = entries.get(path);
+			out.writeUTF(path);
+			out.writeLong(e.size);
+			out.writeLong(e.lastModified);
+			out.writeLong(e.lastUsed);
+			out.writeInt(e.type);
+			out.writeBoolean(e.key != null);
+			if (e.key != null)
+				out.writeUTF(e.key);
+		}
+	}
+}
+// Created 16 October 2026, 8:49pm
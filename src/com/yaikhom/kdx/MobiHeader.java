@@ -0,0 +1,214 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Encapsulates the meta-data found in the header of a MOBI (and AZW) document.
+ * A MOBI document is a Palm database, whose first record holds the PalmDOC
+ * header, followed by the MOBI header and, optionally, an EXTH header with
+ * the meta-data records. Further information available at:
+ * 
+ * <p>
+ * {@code http://wiki.mobileread.com/wiki/MOBI}
+ * 
+ * <p>
+ * Only the pages which contain the headers are memory-mapped: the first page
+ * of the file, for the database header and the record list, and the pages
+ * starting at the first record, if it lies beyond the first page.
+ * 
+ * @author gyaikhom
+ */
+public class MobiHeader {
+	private static final int PAGE_SIZE = 4096;
+	private static final int MAX_HEADER_SIZE = 64 * 1024;
+	private static final int PDB_HEADER_SIZE = 78;
+	private static final int PDB_TYPE = 60;
+	private static final int PDB_RECORD_COUNT = 76;
+	private static final int PALMDOC_HEADER_SIZE = 16;
+	private static final int MOBI_HEADER_LENGTH = 4;
+	private static final int MOBI_ENCODING = 12;
+	private static final int MOBI_EXTH_FLAGS = 0x70;
+	private static final int EXTH_FLAG = 0x40;
+	private static final int ENCODING_UTF8 = 65001;
+
+	/**
+	 * EXTH record types.
+	 */
+	public static final int EXTH_ASIN = 113;
+	public static final int EXTH_CDE_TYPE = 501;
+	public static final int EXTH_ASIN_ALT = 504;
+
+	private String asin;
+	private String documentType;
+
+	private MobiHeader() {
+	}
+
+	/**
+	 * Returns the ASIN of the document (EXTH 113, or 504).
+	 * 
+	 * @return the ASIN, or null if the header has none.
+	 */
+	public String getAsin() {
+		return asin;
+	}
+
+	/**
+	 * Returns the content type of the document (EXTH 501), e.g. EBOK or PDOC.
+	 * 
+	 * @return the document type, or null if the header has none.
+	 */
+	public String getDocumentType() {
+		return documentType;
+	}
+
+	/**
+	 * Maps a region of the file, clamped to the file size.
+	 */
+	private static MappedByteBuffer map(FileChannel ch, long position,
+			long length, long size) throws IOException {
+		length = Math.min(length, size - position);
+		return ch.map(FileChannel.MapMode.READ_ONLY, position, length);
+	}
+
+	/**
+	 * Checks if a region lies within a buffer. The lengths are read from the
+	 * file, so that they are compared with the remaining space, which cannot
+	 * overflow.
+	 */
+	private static boolean contains(ByteBuffer b, int offset, int length) {
+		return offset >= 0 && length >= 0 && offset <= b.limit()
+				&& length <= b.limit() - offset;
+	}
+
+	/**
+	 * Reads the header of a MOBI document.
+	 * 
+	 * @param file
+	 *            the document.
+	 * @return the meta-data, or null if the file is not a MOBI document.
+	 * @throws IOException
+	 */
+	public static MobiHeader read(Path file) throws IOException {
+		FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = ch.size();
+			if (size < PDB_HEADER_SIZE + 8)
+				return null;
+			ByteBuffer b = map(ch, 0, PAGE_SIZE, size);
+			if (b.getInt(PDB_TYPE) != 0x424f4f4b // "BOOK"
+					|| b.getInt(PDB_TYPE + 4) != 0x4d4f4249) // "MOBI"
+				return null;
+			if ((b.getShort(PDB_RECORD_COUNT) & 0xFFFF) == 0)
+				return null;
+			long record0 = b.getInt(PDB_HEADER_SIZE) & 0xFFFFFFFFL;
+			if (record0 >= size)
+				return null;
+
+			// Record 0: the PalmDOC header followed by the MOBI header.
+			int base = (int) record0; // offset of record 0 in the buffer
+			int mobi = PALMDOC_HEADER_SIZE;
+			if (!contains(b, base + mobi, MOBI_EXTH_FLAGS + 4)) {
+				b = map(ch, record0, PAGE_SIZE, size);
+				base = 0;
+				if (!contains(b, base + mobi, MOBI_EXTH_FLAGS + 4))
+					return null;
+			}
+			if (b.getInt(base + mobi) != 0x4d4f4249) // "MOBI"
+				return null;
+			MobiHeader h = new MobiHeader();
+			int mobiLength = b.getInt(base + mobi + MOBI_HEADER_LENGTH);
+			if ((b.getInt(base + mobi + MOBI_EXTH_FLAGS) & EXTH_FLAG) == 0
+					|| mobiLength <= MOBI_EXTH_FLAGS
+					|| mobiLength > MAX_HEADER_SIZE)
+				return h;
+			Charset charset = Charset.forName((b.getInt(base + mobi
+					+ MOBI_ENCODING) == ENCODING_UTF8) ? "UTF-8"
+					: "windows-1252");
+
+			// The EXTH header follows the MOBI header.
+			int exth = mobi + mobiLength;
+			if (!contains(b, base + exth, 12)) {
+				b = map(ch, record0, exth + 12, size);
+				base = 0;
+				if (!contains(b, exth, 12))
+					return h;
+			}
+			if (b.getInt(base + exth) != 0x45585448) // "EXTH"
+				return h;
+			int exthLength = b.getInt(base + exth + 4);
+			if (exthLength < 12 || exthLength > MAX_HEADER_SIZE - exth)
+				return h;
+			if (!contains(b, base + exth, exthLength)) {
+				b = map(ch, record0, exth + exthLength, size);
+				base = 0;
+				if (!contains(b, exth, exthLength))
+					return h;
+			}
+			exth += base;
+			int count = b.getInt(exth + 8);
+			int p = exth + 12, end = exth + exthLength;
+			for (int i = 0; i < count && p + 8 <= end; i++) {
+				int type = b.getInt(p);
+				int length = b.getInt(p + 4);
+				if (length < 8 || length > end - p)
+					break;
+				if (type == EXTH_ASIN
+						|| (type == EXTH_ASIN_ALT && h.asin == null)) {
+					h.asin = decode(b, p + 8, length - 8, charset);
+				} else if (type == EXTH_CDE_TYPE) {
+					h.documentType = decode(b, p + 8, length - 8, charset);
+				}
+				p += length;
+			}
+			return h;
+		} finally {
+			ch.close();
+		}
+	}
+
+	/**
+	 * Decodes a string from a region of a buffer.
+	 */
+	private static String decode(ByteBuffer b, int offset, int length,
+			Charset charset) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++)
+			data[i] = b.get(offset + i);
+		return new String(data, charset).trim();
+	}
+}
+// Created 16 October 2026, 8:47pm
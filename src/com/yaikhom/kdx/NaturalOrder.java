@@ -0,0 +1,244 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Orders names with runs of digits compared by their numeric value, so that
+ * "Volume 9" comes before "Volume 10". For display, names are compared
+ * according to the rules of a locale, through precomputed collation keys.
+ * Names that collate as equal are ordered by an exact tie-break string, so
+ * that the order never depends on the order of the input.
+ * 
+ * <p>
+ * The order of a locale depends on the machine, and computing collation keys
+ * is costly. Names that are written to a file, or sorted in large numbers,
+ * are therefore compared by their characters instead (see
+ * {@link #NaturalOrder(Locale)}), which gives the same order everywhere.
+ * 
+ * @author gyaikhom
+ */
+public class NaturalOrder {
+	/*
+	 * Number of names below which a range is sorted on a single thread.
+	 */
+	private static final int SEQUENTIAL_THRESHOLD = 8192;
+
+	private final Collator collator; // null if comparing characters
+
+	/*
+	 * Collators are not thread-safe, so that every thread has its own copy.
+	 */
+	private final ThreadLocal<Collator> collators = new ThreadLocal<Collator>() {
+		@Override
+		protected Collator initialValue() {
+			return (Collator) collator.clone();
+		}
+	};
+
+	/**
+	 * A precomputed sort key of a name.
+	 */
+	private static final class Key implements Comparable<Key> {
+		final CollationKey key;
+		final String name; // with expanded numbers, if there is no key
+		final String exact;
+		final int index;
+
+		Key(CollationKey key, String name, String exact, int index) {
+			this.key = key;
+			this.name = name;
+			this.exact = exact;
+			this.index = index;
+		}
+
+		public int compareTo(Key o) {
+			int c = (key != null) ? key.compareTo(o.key) : name
+					.compareTo(o.name);
+			if (c == 0)
+				c = exact.compareTo(o.exact);
+			return (c != 0) ? c : index - o.index;
+		}
+	}
+
+	/**
+	 * Creates the natural order of the default locale.
+	 */
+	public NaturalOrder() {
+		this(Locale.getDefault());
+	}
+
+	/**
+	 * Creates the natural order of a locale.
+	 * 
+	 * @param locale
+	 *            the locale, or null to compare the characters of the names,
+	 *            which is independent of the locale.
+	 */
+	public NaturalOrder(Locale locale) {
+		collator = (locale == null) ? null : Collator.getInstance(locale);
+	}
+
+	/**
+	 * Rewrites every run of digits as its number of significant digits,
+	 * written as two digits, followed by the significant digits. A longer
+	 * number then collates after a shorter one. Numbers of 99 digits or more
+	 * have their number of digits written as "99", followed by the number of
+	 * digits of that count, as two digits, and the count itself.
+	 */
+	static String expandNumbers(String name) {
+		int l = name.length(), i = 0;
+		while (i < l && !isDigit(name.charAt(i)))
+			i++;
+		if (i == l)
+			return name;
+		StringBuilder b = new StringBuilder(l + 8);
+		b.append(name, 0, i);
+		while (i < l) {
+			char c = name.charAt(i);
+			if (!isDigit(c)) {
+				b.append(c);
+				i++;
+				continue;
+			}
+			while (i < l && name.charAt(i) == '0')
+				i++;
+			int start = i;
+			while (i < l && isDigit(name.charAt(i)))
+				i++;
+			int n = i - start;
+			if (n >= 99) {
+				String count = Integer.toString(n);
+				b.append("99");
+				appendTwoDigits(b, count.length());
+				b.append(count);
+			} else {
+				appendTwoDigits(b, n);
+			}
+			b.append(name, start, i);
+		}
+		return b.toString();
+	}
+
+	private static void appendTwoDigits(StringBuilder b, int n) {
+		b.append((char) ('0' + n / 10)).append((char) ('0' + n % 10));
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private Key getKey(String name, String exact, int index) {
+		name = expandNumbers(name);
+		if (collator == null)
+			return new Key(null, name, exact, index);
+		return new Key(collators.get().getCollationKey(name), null, exact,
+				index);
+	}
+
+	/**
+	 * Computes the keys of a range of names, and sorts the range. Ranges
+	 * above the threshold are split, sorted in parallel, and merged.
+	 */
+	private class SortTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final String[] names, exact;
+		private final Key[] keys, tmp;
+		private final int lo, hi;
+
+		SortTask(String[] names, String[] exact, Key[] keys, Key[] tmp,
+				int lo, int hi) {
+			this.names = names;
+			this.exact = exact;
+			this.keys = keys;
+			this.tmp = tmp;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo <= SEQUENTIAL_THRESHOLD) {
+				for (int i = lo; i < hi; i++)
+					keys[i] = getKey(names[i], exact[i], i);
+				Arrays.sort(keys, lo, hi);
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new SortTask(names, exact, keys, tmp, lo, mid),
+					new SortTask(names, exact, keys, tmp, mid, hi));
+			if (keys[mid - 1].compareTo(keys[mid]) <= 0)
+				return; // already in order
+			int i = lo, j = mid, k = lo;
+			while (i < mid && j < hi)
+				tmp[k++] = (keys[i].compareTo(keys[j]) <= 0) ? keys[i++]
+						: keys[j++];
+			while (i < mid)
+				tmp[k++] = keys[i++];
+			while (j < hi)
+				tmp[k++] = keys[j++];
+			System.arraycopy(tmp, lo, keys, lo, hi - lo);
+		}
+	}
+
+	/**
+	 * Sorts names into their natural order.
+	 * 
+	 * @param names
+	 *            the names to sort.
+	 * @param exact
+	 *            the strings that order names which collate as equal, e.g.,
+	 *            the names themselves.
+	 * @param pool
+	 *            the pool that computes the keys and sorts in parallel, or
+	 *            null to sort on the current thread.
+	 * @return the indices of the names, in sorted order.
+	 */
+	public int[] sort(String[] names, String[] exact, ForkJoinPool pool) {
+		int n = names.length;
+		Key[] keys = new Key[n];
+		if (pool == null || n <= SEQUENTIAL_THRESHOLD) {
+			for (int i = 0; i < n; i++)
+				keys[i] = getKey(names[i], exact[i], i);
+			Arrays.sort(keys);
+		} else {
+			pool.invoke(new SortTask(names, exact, keys, new Key[n], 0, n));
+		}
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = keys[i].index;
+		return order;
+	}
+}
+// Created 16 October 2026, 10:30pm
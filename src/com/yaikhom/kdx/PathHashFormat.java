@@ -0,0 +1,68 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Encapsulates a format whose documents are identified by the SHA1 checksum of
+ * their path on the device, such as PDF files and other personal documents.
+ * 
+ * @author gyaikhom
+ * @see Checksum#getKDXFilenameHash(String, String)
+ */
+public class PathHashFormat extends Format {
+	private Checksum checksum = new Checksum();
+
+	/**
+	 * Initialises a path hashed format.
+	 * 
+	 * @param type
+	 *            the item type of the documents.
+	 */
+	public PathHashFormat(int type) {
+		super(type);
+	}
+
+	@Override
+	public Item process(Path file, String fname, String currentDir)
+			throws NoSuchAlgorithmException, UnsupportedEncodingException {
+		ScanStatistics s = getStatistics();
+		long start = (s == null) ? 0 : System.nanoTime();
+		String key = checksum.getKDXFilenameHash(currentDir, fname);
+		if (s != null)
+			s.addHashTime(System.nanoTime() - start);
+		if (key == null)
+			return null;
+		else
+			return createItem(file, fname, "*" + key); // KDX requires '*'
+	}
+}
+// Created 16 October 2026, 8:44pm
@@ -0,0 +1,60 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+/**
+ * Receives the progress of a scan of the documents tree. When several scanning
+ * threads are used, the progress may be reported from any of them, so that
+ * implementations must be thread safe and should return quickly.
+ * 
+ * @author gyaikhom
+ * @see Manager#setScanListener(ScanListener)
+ */
+public interface ScanListener {
+	/**
+	 * Reports the number of entries visited so far. This is called
+	 * periodically while scanning, and once when the scan has finished.
+	 * 
+	 * @param directories
+	 *            the number of directories visited.
+	 * @param files
+	 *            the number of files visited.
+	 * @param collections
+	 *            the number of collections found.
+	 */
+	void scanProgress(long directories, long files, int collections);
+
+	/**
+	 * Reports a collection found for the first time.
+	 * 
+	 * @param name
+	 *            the name of the collection.
+	 */
+	void collectionFound(String name);
+}
+// Created 16 October 2026, 10:16pm
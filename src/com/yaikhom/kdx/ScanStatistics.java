@@ -0,0 +1,325 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Encapsulates the statistics of a scan of the documents tree, and of the
+ * collections file written from it. The counters may be updated by several
+ * scanning threads at once, and read at any time, e.g., over JMX while a scan
+ * is in progress (see {@link #register()}).
+ * 
+ * <p>
+ * The walk time is the elapsed time of the scan of the documents tree. The
+ * classify and hash times are summed over the scanning threads, so that they
+ * may exceed the walk time of a parallel scan. The hash time is part of the
+ * classify time.
+ * 
+ * @author gyaikhom
+ * @see Manager#getStatistics()
+ */
+public class ScanStatistics implements ScanStatisticsMBean {
+	private static final Logger logger = Logger.getLogger("com.yaikhom.kdx");
+
+	/**
+	 * Name of the statistics MBean.
+	 */
+	public static final String OBJECT_NAME = "com.yaikhom.kdx:type=ScanStatistics";
+
+	/**
+	 * Reasons for not collecting an AZW file, once both the filename and the
+	 * document header have been considered.
+	 */
+	public enum AzwRejection {
+		UNSUPPORTED_TYPE, NO_HEADER_ASIN, UNSUPPORTED_HEADER_TYPE, UNREADABLE_HEADER
+	}
+
+	private static final int TYPES = 8; // item types counted separately
+
+	final AtomicLong directories = new AtomicLong();
+	final AtomicLong files = new AtomicLong();
+	final AtomicInteger collections = new AtomicInteger();
+	private final AtomicLongArray accepted = new AtomicLongArray(TYPES);
+	private final AtomicLongArray rejected = new AtomicLongArray(
+			AzwRejection.values().length);
+	private volatile int truncatedNames;
+	private volatile long walkStart; // nanoseconds, or 0 if not walking
+	private final AtomicLong walkNanos = new AtomicLong();
+	private final AtomicLong classifyNanos = new AtomicLong();
+	private final AtomicLong hashNanos = new AtomicLong();
+	private final AtomicLong sortNanos = new AtomicLong();
+	private final AtomicLong serializeNanos = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private String objectName = OBJECT_NAME;
+
+	/**
+	 * Clears the statistics of the scan. The serialisation statistics are
+	 * kept, since the collections may be saved before the next scan.
+	 */
+	public void reset() {
+		directories.set(0);
+		files.set(0);
+		collections.set(0);
+		for (int i = 0; i < TYPES; i++)
+			accepted.set(i, 0);
+		for (int i = 0; i < rejected.length(); i++)
+			rejected.set(i, 0);
+		truncatedNames = 0;
+		walkNanos.set(0);
+		classifyNanos.set(0);
+		hashNanos.set(0);
+		sortNanos.set(0);
+	}
+
+	/**
+	 * Sets the name that the statistics are registered under, so that the
+	 * statistics of several devices scanned in the same process can be told
+	 * apart.
+	 * 
+	 * @param device
+	 *            the device, which is added to the name as the
+	 *            {@code device} key.
+	 */
+	public void setDevice(String device) {
+		objectName = OBJECT_NAME + ",device=" + ObjectName.quote(device);
+	}
+
+	/**
+	 * Registers the statistics with the platform MBean server, replacing any
+	 * statistics already registered under the same name, e.g., by an earlier
+	 * scan in the same process.
+	 */
+	public void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(objectName);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+		} catch (JMException e) {
+			logger.warning("Failed to register scan statistics (" + e + ").");
+		}
+	}
+
+	/**
+	 * Counts a document accepted for inclusion in a collection.
+	 * 
+	 * @param type
+	 *            the item type of the document.
+	 */
+	public void accepted(int type) {
+		accepted.incrementAndGet((type > 0 && type < TYPES) ? type : 0);
+	}
+
+	/**
+	 * Counts an AZW document that was not collected.
+	 * 
+	 * @param reason
+	 *            the reason for rejecting the document.
+	 */
+	public void rejected(AzwRejection reason) {
+		rejected.incrementAndGet(reason.ordinal());
+	}
+
+	/**
+	 * Adds the time spent classifying a file.
+	 * 
+	 * @param nanos
+	 *            the time, in nanoseconds.
+	 */
+	public void addClassifyTime(long nanos) {
+		classifyNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * Adds the time spent hashing a document path.
+	 * 
+	 * @param nanos
+	 *            the time, in nanoseconds.
+	 */
+	public void addHashTime(long nanos) {
+		hashNanos.addAndGet(nanos);
+	}
+
+	void startWalk() {
+		walkStart = System.nanoTime();
+	}
+
+	void endWalk() {
+		walkNanos.set(System.nanoTime() - walkStart);
+		walkStart = 0;
+	}
+
+	void addSortTime(long nanos) {
+		sortNanos.addAndGet(nanos);
+	}
+
+	void addSerialization(long nanos, long bytes) {
+		serializeNanos.addAndGet(nanos);
+		bytesWritten.addAndGet(bytes);
+	}
+
+	void setTruncatedNames(int truncatedNames) {
+		this.truncatedNames = truncatedNames;
+	}
+
+	private static long toMillis(long nanos) {
+		return nanos / 1000000L;
+	}
+
+	public long getDirectories() {
+		return directories.get();
+	}
+
+	public long getFiles() {
+		return files.get();
+	}
+
+	public long getPdfAccepted() {
+		return accepted.get(Item.PDF_FILE);
+	}
+
+	public long getAzwAccepted() {
+		return accepted.get(Item.AZW_FILE) + accepted.get(Item.AZW1_FILE);
+	}
+
+	public long getOtherAccepted() {
+		long n = 0;
+		for (int i = 0; i < TYPES; i++)
+			n += accepted.get(i);
+		return n - getPdfAccepted() - getAzwAccepted();
+	}
+
+	public long getAzwRejectedUnsupportedType() {
+		return rejected.get(AzwRejection.UNSUPPORTED_TYPE.ordinal());
+	}
+
+	public long getAzwRejectedNoHeaderAsin() {
+		return rejected.get(AzwRejection.NO_HEADER_ASIN.ordinal());
+	}
+
+	public long getAzwRejectedUnsupportedHeaderType() {
+		return rejected.get(AzwRejection.UNSUPPORTED_HEADER_TYPE.ordinal());
+	}
+
+	public long getAzwRejectedUnreadableHeader() {
+		return rejected.get(AzwRejection.UNREADABLE_HEADER.ordinal());
+	}
+
+	public int getCollections() {
+		return collections.get();
+	}
+
+	public int getTruncatedNames() {
+		return truncatedNames;
+	}
+
+	/**
+	 * Returns the walk time, which is still running while a scan is in
+	 * progress.
+	 */
+	public long getWalkTime() {
+		long start = walkStart;
+		return toMillis((start == 0) ? walkNanos.get() : System.nanoTime()
+				- start);
+	}
+
+	public long getClassifyTime() {
+		return toMillis(classifyNanos.get());
+	}
+
+	public long getHashTime() {
+		return toMillis(hashNanos.get());
+	}
+
+	public long getSortTime() {
+		return toMillis(sortNanos.get());
+	}
+
+	public long getSerializeTime() {
+		return toMillis(serializeNanos.get());
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	public double getFilesPerSecond() {
+		long millis = getWalkTime();
+		return (millis == 0) ? 0 : 1000.0 * getFiles() / millis;
+	}
+
+	/**
+	 * Returns a summary of the statistics, one line per statistic.
+	 * 
+	 * @return the summary.
+	 */
+	public String report() {
+		String nl = System.getProperty("line.separator");
+		StringBuilder b = new StringBuilder();
+		b.append("Directories:            ").append(getDirectories()).append(nl);
+		b.append("Files:                  ").append(getFiles()).append(nl);
+		b.append("PDF accepted:           ").append(getPdfAccepted()).append(nl);
+		b.append("AZW accepted:           ").append(getAzwAccepted()).append(nl);
+		b.append("Other accepted:         ").append(getOtherAccepted()).append(nl);
+		b.append("AZW rejected:").append(nl);
+		b.append("  unsupported type:     ")
+				.append(getAzwRejectedUnsupportedType()).append(nl);
+		b.append("  no ASIN in header:    ")
+				.append(getAzwRejectedNoHeaderAsin()).append(nl);
+		b.append("  unsupported header:   ")
+				.append(getAzwRejectedUnsupportedHeaderType()).append(nl);
+		b.append("  unreadable header:    ")
+				.append(getAzwRejectedUnreadableHeader()).append(nl);
+		b.append("Collections:            ").append(getCollections()).append(nl);
+		b.append("Truncated names:        ").append(getTruncatedNames())
+				.append(nl);
+		b.append("Walk time (ms):         ").append(getWalkTime()).append(nl);
+		b.append("Classify time (ms):     ").append(getClassifyTime())
+				.append(nl);
+		b.append("Hash time (ms):         ").append(getHashTime()).append(nl);
+		b.append("Sort time (ms):         ").append(getSortTime()).append(nl);
+		b.append("Serialize time (ms):    ").append(getSerializeTime())
+				.append(nl);
+		b.append("Bytes written:          ").append(getBytesWritten())
+				.append(nl);
+		b.append("Throughput (files/s):   ")
+				.append(String.format("%.1f", getFilesPerSecond())).append(nl);
+		return b.toString();
+	}
+}
+// Created 16 October 2026, 10:20pm
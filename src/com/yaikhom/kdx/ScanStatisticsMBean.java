@@ -0,0 +1,76 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+/**
+ * Management interface of the scan statistics, which is exposed over JMX as
+ * {@code com.yaikhom.kdx:type=ScanStatistics}. Times are in milliseconds.
+ * 
+ * @author gyaikhom
+ * @see ScanStatistics
+ */
+public interface ScanStatisticsMBean {
+	long getDirectories();
+
+	long getFiles();
+
+	long getPdfAccepted();
+
+	long getAzwAccepted();
+
+	long getOtherAccepted();
+
+	long getAzwRejectedUnsupportedType();
+
+	long getAzwRejectedNoHeaderAsin();
+
+	long getAzwRejectedUnsupportedHeaderType();
+
+	long getAzwRejectedUnreadableHeader();
+
+	int getCollections();
+
+	int getTruncatedNames();
+
+	long getWalkTime();
+
+	long getClassifyTime();
+
+	long getHashTime();
+
+	long getSortTime();
+
+	long getSerializeTime();
+
+	long getBytesWritten();
+
+	double getFilesPerSecond();
+
+	void reset();
+}
+// Created 16 October 2026, 10:20pm
@@ -0,0 +1,241 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A trigram index over the names of the collections and their items, which
+ * answers substring searches without visiting every name.
+ * 
+ * <p>
+ * Every name is an entry, numbered in display order: a collection followed
+ * by its items. For every trigram of the lowercase names, the index keeps
+ * the sorted list of the entries that contain it. A search intersects the
+ * lists of the trigrams of the query, and only checks the names of the
+ * remaining candidates. Queries shorter than a trigram check every name.
+ * 
+ * @author gyaikhom
+ * @see Manager#getCollectionModel(String)
+ */
+public class SearchIndex {
+	private static final int N = 3; // characters in a trigram
+
+	private final List<Collection> collections;
+	private final int[] firstEntry; // entry of each collection name
+	private final int entries;
+	private final HashMap<Long, int[]> postings = new HashMap<Long, int[]>();
+
+	/**
+	 * Builds the index for the supplied collections.
+	 * 
+	 * @param collections
+	 *            the collections, in display order. Their items must not
+	 *            change while the index is in use.
+	 */
+	public SearchIndex(List<Collection> collections) {
+		this.collections = collections;
+		firstEntry = new int[collections.size()];
+		HashMap<Long, int[]> lists = new HashMap<Long, int[]>();
+		int e = 0;
+		for (int c = 0; c < firstEntry.length; c++) {
+			Collection coll = collections.get(c);
+			firstEntry[c] = e;
+			add(lists, coll.getName(), e++);
+			for (int i = 0, l = coll.size(); i < l; i++)
+				add(lists, coll.getItemName(i), e++);
+		}
+		entries = e;
+		// the first element of a list is its length
+		for (Map.Entry<Long, int[]> p : lists.entrySet()) {
+			int[] list = p.getValue();
+			postings.put(p.getKey(), Arrays.copyOfRange(list, 1, list[0] + 1));
+		}
+	}
+
+	/**
+	 * Adds the trigrams of a name to the posting lists.
+	 */
+	private static void add(HashMap<Long, int[]> lists, String name, int entry) {
+		for (int i = 0, l = name.length() - N + 1; i < l; i++) {
+			Long t = trigram(name, i);
+			int[] list = lists.get(t);
+			if (list == null) {
+				list = new int[4];
+				lists.put(t, list);
+			} else if (list[list[0]] == entry) {
+				continue; // repeated in this name
+			} else if (list[0] + 1 == list.length) {
+				list = Arrays.copyOf(list, 2 * list.length);
+				lists.put(t, list);
+			}
+			list[++list[0]] = entry;
+		}
+	}
+
+	/**
+	 * Packs the lowercase trigram at the supplied offset into a long.
+	 */
+	private static Long trigram(String s, int off) {
+		long t = 0;
+		for (int i = off; i < off + N; i++)
+			t = (t << 16) | Character.toLowerCase(s.charAt(i));
+		return t;
+	}
+
+	/**
+	 * Returns the number of names in the index.
+	 * 
+	 * @return the number of names.
+	 */
+	public int size() {
+		return entries;
+	}
+
+	/**
+	 * Searches the collections and items with names containing the query,
+	 * ignoring case. A collection whose name matches is shown with all of its
+	 * items; any other collection is only shown with its matching items.
+	 * 
+	 * @param root
+	 *            the label of the root node of the model.
+	 * @param query
+	 *            the text to search for.
+	 * @return a tree model of the matching collections and items.
+	 */
+	public CollectionTreeModel search(String root, String query) {
+		String q = lowercase(query);
+		int[] candidates = (q.length() < N) ? null : candidates(q);
+		ArrayList<Collection> found = new ArrayList<Collection>();
+		ArrayList<int[]> items = new ArrayList<int[]>();
+		int[] matched = new int[16];
+		int k = 0, l = (candidates == null) ? entries : candidates.length;
+		while (k < l) {
+			int e = (candidates == null) ? k : candidates[k];
+			int c = collectionOf(e);
+			Collection coll = collections.get(c);
+			int end = (c + 1 < firstEntry.length) ? firstEntry[c + 1] : entries;
+			if (e == firstEntry[c] && contains(coll.getName(), q)) {
+				found.add(coll);
+				items.add(null);
+				while (k < l && (candidates == null ? k : candidates[k]) < end)
+					k++;
+				continue;
+			}
+			int n = 0;
+			for (; k < l; k++) {
+				e = (candidates == null) ? k : candidates[k];
+				if (e >= end)
+					break;
+				int i = e - firstEntry[c] - 1;
+				if (i >= 0 && contains(coll.getItemName(i), q)) {
+					if (n == matched.length)
+						matched = Arrays.copyOf(matched, 2 * n);
+					matched[n++] = i;
+				}
+			}
+			if (n > 0) {
+				found.add(coll);
+				items.add(Arrays.copyOf(matched, n));
+			}
+		}
+		return new CollectionTreeModel(root, found, items);
+	}
+
+	/**
+	 * Returns the entries that contain every trigram of the query, in
+	 * ascending order.
+	 */
+	private int[] candidates(String q) {
+		int m = q.length() - N + 1;
+		int[][] lists = new int[m][];
+		for (int i = 0; i < m; i++) {
+			lists[i] = postings.get(trigram(q, i));
+			if (lists[i] == null)
+				return new int[0];
+		}
+		// intersect from the shortest list
+		int shortest = 0;
+		for (int i = 1; i < m; i++)
+			if (lists[i].length < lists[shortest].length)
+				shortest = i;
+		int[] result = lists[shortest].clone();
+		int n = result.length;
+		for (int i = 0; i < m && n > 0; i++) {
+			if (i == shortest)
+				continue;
+			int[] list = lists[i];
+			int r = 0;
+			for (int j = 0, p = 0; j < n; j++) {
+				int e = result[j];
+				while (p < list.length && list[p] < e)
+					p++;
+				if (p < list.length && list[p] == e)
+					result[r++] = e;
+			}
+			n = r;
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Returns the index of the collection of an entry.
+	 */
+	private int collectionOf(int entry) {
+		int c = Arrays.binarySearch(firstEntry, entry);
+		return (c >= 0) ? c : -c - 2;
+	}
+
+	private static String lowercase(String s) {
+		char[] chars = s.toCharArray();
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = Character.toLowerCase(chars[i]);
+		return new String(chars);
+	}
+
+	/**
+	 * Checks if a name contains the lowercase query, ignoring case.
+	 */
+	private static boolean contains(String name, String q) {
+		int m = q.length();
+		for (int i = 0, l = name.length() - m; i <= l; i++) {
+			int j = 0;
+			while (j < m
+					&& Character.toLowerCase(name.charAt(i + j)) == q.charAt(j))
+				j++;
+			if (j == m)
+				return true;
+		}
+		return false;
+	}
+}
+// Created 16 October 2026, 10:18pm
@@ -0,0 +1,235 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a collections file up to date with the {@code documents/} directory of
+ * a Kindle device. Every directory in the documents tree is registered with a
+ * watch service, and the files created, modified and deleted are applied to
+ * the collections of a processed {@link Manager}. Renaming a file is seen as
+ * the deletion of the old name followed by the creation of the new one.
+ * 
+ * <p>
+ * Changes are batched: once the supplied window has elapsed without further
+ * changes, every changed path is classified again, and the collections file
+ * is rewritten. A document is thus classified once it has been copied, and
+ * not while it is still being written. If the watch service loses events,
+ * the whole documents tree is processed again.
+ * 
+ * @author gyaikhom
+ */
+public class Watcher {
+	private static final Logger logger = Logger.getLogger("com.yaikhom.kdx");
+
+	private Manager kdxm;
+	private String outputFile;
+	private long window; // in milliseconds
+	private WatchService service;
+	private HashMap<WatchKey, Path> keys;
+
+	/*
+	 * Paths changed in the current window, in the order of their first
+	 * change, mapped to true if they were created or deleted, or to false if
+	 * they were only modified.
+	 */
+	private LinkedHashMap<Path, Boolean> changes = new LinkedHashMap<Path, Boolean>();
+
+	/**
+	 * Initialises a watcher for the collections of a processed manager.
+	 * 
+	 * @param kdxm
+	 *            the collection manager, after {@link Manager#process()}.
+	 * @param outputFile
+	 *            the collections file to keep up to date.
+	 * @param window
+	 *            the time in milliseconds to wait for further changes before
+	 *            rewriting the collections file.
+	 */
+	public Watcher(Manager kdxm, String outputFile, long window) {
+		this.kdxm = kdxm;
+		this.outputFile = outputFile;
+		this.window = window;
+		keys = new HashMap<WatchKey, Path>();
+	}
+
+	/**
+	 * Registers the supplied directory, and all of its subdirectories, with
+	 * the watch service.
+	 * 
+	 * @param dir
+	 *            the directory to register.
+	 * @throws IOException
+	 */
+	private void register(Path dir) throws IOException {
+		Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+				Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult preVisitDirectory(Path d,
+							BasicFileAttributes attrs) throws IOException {
+						keys.put(d.register(service, ENTRY_CREATE,
+								ENTRY_DELETE, ENTRY_MODIFY), d);
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path file,
+							IOException exc) {
+						return FileVisitResult.CONTINUE;
+					}
+				});
+	}
+
+	/**
+	 * Records a single watch event. New directories are registered at once,
+	 * so that the files created in them are seen.
+	 * 
+	 * @param kind
+	 *            the kind of event.
+	 * @param p
+	 *            the file or directory which was created, modified or
+	 *            deleted.
+	 * @throws IOException
+	 */
+	private void record(WatchEvent.Kind<?> kind, Path p) throws IOException {
+		boolean structural = (kind != ENTRY_MODIFY);
+		if (kind == ENTRY_CREATE && Files.isDirectory(p))
+			register(p);
+		Boolean previous = changes.get(p);
+		changes.put(p, structural || (previous != null && previous));
+	}
+
+	/**
+	 * Applies the changes of the window to the collections. Every changed
+	 * path is removed, and added again if it still exists, so that it is
+	 * classified again. Directories that were only modified are skipped,
+	 * since the changes of their entries are seen for the entries.
+	 * 
+	 * @throws NoSuchAlgorithmException
+	 * @throws IOException
+	 */
+	private void apply() throws NoSuchAlgorithmException, IOException {
+		for (Map.Entry<Path, Boolean> e : changes.entrySet()) {
+			Path p = e.getKey();
+			boolean exists = Files.exists(p);
+			if (!e.getValue() && (!exists || Files.isDirectory(p)))
+				continue;
+			kdxm.removePath(p);
+			if (exists) {
+				logger.info("Changed '" + p + "' ...");
+				kdxm.addPath(p);
+			} else {
+				logger.info("Deleted '" + p + "' ...");
+			}
+		}
+		changes.clear();
+	}
+
+	/**
+	 * Watches the documents tree until the thread is interrupted.
+	 * 
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public void run() throws IOException, NoSuchAlgorithmException {
+		service = FileSystems.getDefault().newWatchService();
+		try {
+			register(kdxm.getDocumentsRoot());
+			logger.info("Watching " + keys.size() + " directories...");
+			boolean pending = false, rescan = false;
+			long deadline = 0;
+			while (true) {
+				WatchKey key;
+				if (pending) {
+					long wait = deadline - System.currentTimeMillis();
+					key = (wait > 0) ? service.poll(wait, TimeUnit.MILLISECONDS)
+							: null;
+					if (key == null) {
+						if (rescan) {
+							logger.warning("Watch events lost. "
+									+ "Processing documents tree...");
+							register(kdxm.getDocumentsRoot());
+							kdxm.process();
+							changes.clear();
+							rescan = false;
+						} else {
+							apply();
+						}
+						if (kdxm.save(outputFile))
+							logger.info("Collections saved to '"
+									+ outputFile + "' ...");
+						pending = false;
+						continue;
+					}
+				} else {
+					key = service.take();
+				}
+				Path dir = keys.get(key);
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == OVERFLOW)
+						rescan = true;
+					else if (dir != null && !rescan)
+						record(event.kind(), dir.resolve((Path) event.context()));
+					// the window is measured from the last change
+					pending = true;
+					deadline = System.currentTimeMillis() + window;
+				}
+				if (!key.reset())
+					keys.remove(key);
+			}
+		} catch (InterruptedException e) {
+			logger.info("Stopped watching documents tree.");
+		} finally {
+			service.close();
+		}
+	}
+}
+// Created 16 October 2026, 8:37pm
@@ -0,0 +1,106 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the tokenisation of AZW filenames.
+ * 
+ * @author gyaikhom
+ */
+public class AsinFilenameTest {
+	@Test
+	public void tokensAreParsed() {
+		AsinFilename n = AsinFilename.parse("The Adventures of Sherlock "
+				+ "Holme-asin_B000JQU1VS-type_EBOK-v_0.azw");
+		assertNull(n.getRejection());
+		assertEquals("B000JQU1VS", n.getAsin());
+		assertEquals("EBOK", n.getType());
+		assertEquals("0", n.getVersion());
+		assertEquals("#B000JQU1VS^EBOK", n.getKey());
+		assertEquals(AsinFilename.getKey("B000JQU1VS", "EBOK"), n.getKey());
+	}
+
+	@Test
+	public void versionExcludesExtension() {
+		AsinFilename n = AsinFilename.parse("Book-asin_A1-type_EBSP-v_1.2.azw");
+		assertNull(n.getRejection());
+		assertEquals("1.2", n.getVersion());
+		assertEquals("#A1^EBSP", n.getKey());
+		assertEquals("12", AsinFilename.parse("Book-asin_A1-type_EBSP-v_12")
+				.getVersion());
+	}
+
+	@Test
+	public void missingTokensAreRejected() {
+		AsinFilename n = AsinFilename.parse("Treasure-Island.azw");
+		assertEquals(AsinFilename.Rejection.NO_ASIN, n.getRejection());
+		assertNull(n.getAsin());
+		assertNull(n.getKey());
+
+		n = AsinFilename.parse("Book-asin_");
+		assertEquals(AsinFilename.Rejection.NO_ASIN, n.getRejection());
+
+		n = AsinFilename.parse("Book-asin_B000JQU1VS.azw");
+		assertEquals(AsinFilename.Rejection.NO_TYPE, n.getRejection());
+		assertNull(n.getAsin());
+
+		n = AsinFilename.parse("Book-asin_B000JQU1VS-type_EBOK.azw");
+		assertEquals(AsinFilename.Rejection.NO_VERSION, n.getRejection());
+		assertEquals("B000JQU1VS", n.getAsin());
+		assertNull(n.getType());
+		assertNull(n.getKey());
+	}
+
+	@Test
+	public void periodicalsAreRejected() {
+		AsinFilename n = AsinFilename
+				.parse("Daily-asin_B000JQU1VS-type_NWPR-v_3.azw");
+		assertEquals(AsinFilename.Rejection.UNSUPPORTED_TYPE, n.getRejection());
+		assertEquals("B000JQU1VS", n.getAsin());
+		assertEquals("NWPR", n.getType());
+		assertNull(n.getKey());
+		assertEquals(AsinFilename.Rejection.UNSUPPORTED_TYPE, AsinFilename
+				.parse("Book-asin_B000JQU1VS-type_EBOOK-v_0.azw")
+				.getRejection());
+	}
+
+	@Test
+	public void supportedTypes() {
+		assertTrue(AsinFilename.isSupportedType("EBOK"));
+		assertTrue(AsinFilename.isSupportedType("EBSP"));
+		assertFalse(AsinFilename.isSupportedType("NWPR"));
+		assertFalse(AsinFilename.isSupportedType(null));
+	}
+}
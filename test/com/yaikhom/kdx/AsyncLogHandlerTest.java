@@ -0,0 +1,116 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.logging.ErrorManager;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the rotation of the log file written in the background.
+ * 
+ * @author gyaikhom
+ */
+public class AsyncLogHandlerTest {
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private static String repeat(char c, int n) {
+		char[] s = new char[n];
+		Arrays.fill(s, c);
+		return new String(s);
+	}
+
+	private static void log(AsyncLogHandler h, String message) {
+		h.publish(new LogRecord(Level.INFO, message));
+		h.flush();
+	}
+
+	private static String read(File f) throws IOException {
+		return new String(Files.readAllBytes(f.toPath()), "UTF-8");
+	}
+
+	@Test
+	public void fileIsRotatedByBytes() throws IOException {
+		File f = new File(folder.getRoot(), "log");
+		AsyncLogHandler h = new AsyncLogHandler(f.getPath(), 1000, 1, 16);
+		try {
+			String e = repeat('é', 300); // 600 bytes in UTF-8
+			log(h, e);
+			assertFalse(new File(f.getPath() + ".1").exists());
+			log(h, e);
+			assertTrue(new File(f.getPath() + ".1").exists());
+			assertEquals(0, f.length());
+			log(h, "after");
+		} finally {
+			h.close();
+		}
+		assertTrue(read(f).contains("after"));
+	}
+
+	@Test
+	public void fileIsOpenedAgainAfterFailure() throws IOException {
+		File f = new File(folder.getRoot(), "log");
+		final int[] failures = new int[1];
+		AsyncLogHandler h = new AsyncLogHandler(f.getPath(), 200, 0, 16);
+		h.setErrorManager(new ErrorManager() {
+			@Override
+			public synchronized void error(String msg, Exception ex, int code) {
+				if (code == ErrorManager.OPEN_FAILURE)
+					failures[0]++;
+			}
+		});
+		try {
+			// the file can neither be removed nor opened once it is full
+			assertTrue(f.delete());
+			assertTrue(new File(f, "busy").mkdirs());
+			log(h, repeat('x', 200));
+			log(h, "lost");
+			assertEquals(2, failures[0]);
+			assertTrue(new File(f, "busy").delete());
+			assertTrue(f.delete());
+			log(h, "kept");
+		} finally {
+			h.close();
+		}
+		assertEquals(2, failures[0]);
+		assertTrue(read(f).contains("kept"));
+	}
+}
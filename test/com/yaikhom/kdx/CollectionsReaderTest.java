@@ -0,0 +1,155 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests the streaming reader of collections.json files.
+ * 
+ * @author gyaikhom
+ */
+public class CollectionsReaderTest {
+	private static CollectionsReader reader(String json) {
+		return new CollectionsReader(new StringReader(json));
+	}
+
+	private static void assertMalformed(String json) {
+		CollectionsReader r = reader(json);
+		try {
+			while (r.next())
+				;
+			fail("Read malformed " + json);
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void collectionsAreRead() throws IOException {
+		CollectionsReader r = reader(" {\"Alpha@en-US\" : {\"items\":[\"*ab\", "
+				+ "\"#B000JQU1VS^EBOK\"],\"lastAccess\":1290000000},\n"
+				+ "\"Beta@en-US\":{\"lastAccess\":-5,\"items\":[]}} ");
+		assertTrue(r.next());
+		assertEquals("Alpha@en-US", r.getName());
+		assertEquals(Arrays.asList("*ab", "#B000JQU1VS^EBOK"), r.getItems());
+		assertEquals(Long.valueOf(1290000000), r.getLastAccess());
+		assertTrue(r.next());
+		assertEquals("Beta@en-US", r.getName());
+		assertTrue(r.getItems().isEmpty());
+		assertEquals(Long.valueOf(-5), r.getLastAccess());
+		assertFalse(r.next());
+		assertFalse(r.next());
+	}
+
+	@Test
+	public void emptyFileHasNoCollections() throws IOException {
+		assertFalse(reader("{}").next());
+		CollectionsReader r = reader("{\"Empty\":{}}");
+		assertTrue(r.next());
+		assertTrue(r.getItems().isEmpty());
+		assertNull(r.getLastAccess());
+	}
+
+	@Test
+	public void escapesAreDecoded() throws IOException {
+		CollectionsReader r = reader("{\"Say \\\"hi\\\"\\\\\\/\\u00e9\\n@en-US\""
+				+ ":{\"items\":[\"a\\tb\"]}}");
+		assertTrue(r.next());
+		assertEquals("Say \"hi\"\\/\u00e9\n@en-US", r.getName());
+		assertEquals(Arrays.asList("a\tb"), r.getItems());
+	}
+
+	@Test
+	public void unknownMembersAreSkipped() throws IOException {
+		CollectionsReader r = reader("{\"A\":{\"x\":{\"y\":[1,{\"z\":\"]}\"}],"
+				+ "\"n\":null},\"items\":[\"k\",3,[\"no\"],true],"
+				+ "\"flag\":false,\"lastAccess\":\"soon\",\"f\":1.5e3}}");
+		assertTrue(r.next());
+		assertEquals(Arrays.asList("k"), r.getItems());
+		assertNull(r.getLastAccess());
+		assertFalse(r.next());
+	}
+
+	@Test
+	public void longNamesSpanBuffers() throws IOException {
+		char[] c = new char[20000];
+		Arrays.fill(c, 'x');
+		String name = new String(c);
+		CollectionsReader r = reader("{\"" + name + "\":{\"items\":[\"" + name
+				+ "\"]}}");
+		assertTrue(r.next());
+		assertEquals(name, r.getName());
+		assertEquals(name, r.getItems().get(0));
+	}
+
+	@Test
+	public void malformedInputIsRejected() {
+		assertMalformed("");
+		assertMalformed("[]");
+		assertMalformed("{\"A\":{\"items\":[\"k\"]}");
+		assertMalformed("{\"A\":{\"items\":[\"k\"}}");
+		assertMalformed("{\"A\" {}}");
+		assertMalformed("{\"A\":{},}");
+		assertMalformed("{\"A\":{\"items\":[\"k]}}");
+		assertMalformed("{\"A\":{\"x\":}}");
+		assertMalformed("{\"A\":{\"lastAccess\":-}}");
+		assertMalformed("{\"A\\q\":{}}");
+		assertMalformed("{\"A\\u00g0\":{}}");
+	}
+
+	@Test
+	public void writtenCollectionsAreReadBack() throws IOException {
+		Collection c = new Collection();
+		c.setName("Quote \" and \\ and \u0001");
+		c.addKey("*0123456789abcdef0123456789abcdef01234567");
+		c.addKey("#B000JQU1VS^EBOK");
+		StringWriter out = new StringWriter();
+		out.write('{');
+		c.write(out);
+		out.write('}');
+		CollectionsReader r = reader(out.toString());
+		assertTrue(r.next());
+		assertEquals(c.getName() + "@" + c.getLocale(), r.getName());
+		assertEquals(Arrays.asList(c.getItemKey(0), c.getItemKey(1)),
+				r.getItems());
+		assertEquals(c.getLastAccess(), r.getLastAccess());
+		assertFalse(r.next());
+	}
+}
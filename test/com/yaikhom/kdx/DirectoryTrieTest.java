@@ -0,0 +1,163 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+/**
+ * Tests the rules by which directories are mapped to collections, and their
+ * names shortened and merged.
+ * 
+ * @author gyaikhom
+ */
+public class DirectoryTrieTest {
+	private static final String[] tree = { "Alpha/", "Alpha/Fruits/",
+			"Beta/Animals/", "Gamma/Interesting sea creatures/",
+			"Gamma/Interesting sea creatures/Fish/",
+			"Gamma/Interesting sea creatures/Fish/Big/",
+			"Gamma/Interesting sea creatures/Fish/Small/",
+			"Gamma/Interesting sea creatures/Mammals/" };
+
+	private final HashMap<String, Collection> collections = new HashMap<String, Collection>();
+
+	private DirectoryTrie createTrie(int maxlen) {
+		collections.clear();
+		return new DirectoryTrie(collections, maxlen, Paths.get("/documents"));
+	}
+
+	/**
+	 * Returns the name of a collection, as it was derived from the path of
+	 * every directory before the trie.
+	 */
+	private static String getCollectionName(String basepath, int maxlen) {
+		if (basepath.length() > maxlen)
+			return basepath.substring(0, maxlen - 3) + "...";
+		return basepath.substring(0, basepath.length() - 1);
+	}
+
+	@Test
+	public void untruncatedNamesArePaths() throws Exception {
+		DirectoryTrie trie = createTrie(48);
+		Collection c = trie.getCollection(trie.getNode("Alpha/Fruits/"));
+		assertEquals("Alpha/Fruits", c.getName());
+		assertSame(c, collections.get("Alpha/Fruits"));
+		assertEquals(0, trie.getTruncatedNames());
+	}
+
+	@Test
+	public void nestedDirectoriesShareTruncatedCollection() throws Exception {
+		DirectoryTrie trie = createTrie(20);
+		Collection fish = trie.getCollection(trie
+				.getNode("Gamma/Interesting sea creatures/Fish/"));
+		Collection big = trie.getCollection(trie
+				.getNode("Gamma/Interesting sea creatures/Fish/Big/"));
+		Collection small = trie.getCollection(trie
+				.getNode("Gamma/Interesting sea creatures/Fish/Small/"));
+		assertEquals("Gamma/Interesting...", fish.getName());
+		assertSame(fish, big);
+		assertSame(fish, small);
+		assertEquals(1, collections.size());
+	}
+
+	@Test
+	public void truncatedSiblingsAreMerged() throws Exception {
+		DirectoryTrie trie = createTrie(36);
+		Collection fish = trie.getCollection(trie
+				.getNode("Gamma/Interesting sea creatures/Fish/"));
+		Collection mammals = trie.getCollection(trie
+				.getNode("Gamma/Interesting sea creatures/Mammals/"));
+		assertEquals("Gamma/Interesting sea creatures/F...", fish.getName());
+		assertEquals("Gamma/Interesting sea creatures/M...", mammals.getName());
+		assertNotSame(fish, mammals);
+
+		trie = createTrie(35);
+		fish = trie.getCollection(trie
+				.getNode("Gamma/Interesting sea creatures/Fish/"));
+		mammals = trie.getCollection(trie
+				.getNode("Gamma/Interesting sea creatures/Mammals/"));
+		assertEquals("Gamma/Interesting sea creatures/...", fish.getName());
+		assertSame(fish, mammals);
+		assertEquals(2, trie.getTruncatedNames());
+	}
+
+	@Test
+	public void untruncatedDirectoryIsNotMergedWithTruncated()
+			throws Exception {
+		DirectoryTrie trie = createTrie(34);
+		Collection parent = trie.getCollection(trie
+				.getNode("Gamma/Interesting sea creatures/"));
+		Collection fish = trie.getCollection(trie
+				.getNode("Gamma/Interesting sea creatures/Fish/"));
+		assertEquals("Gamma/Interesting sea creatures", parent.getName());
+		assertEquals("Gamma/Interesting sea creatures...", fish.getName());
+		assertNotSame(parent, fish);
+		assertEquals(1, trie.getTruncatedNames());
+	}
+
+	@Test
+	public void namesMatchPathTruncation() throws Exception {
+		for (int maxlen : new int[] { 48, 30, 20, 12, 8 }) {
+			DirectoryTrie trie = createTrie(maxlen);
+			for (String basepath : tree)
+				assertEquals("-l " + maxlen + ": " + basepath,
+						getCollectionName(basepath, maxlen), trie
+								.getCollection(trie.getNode(basepath))
+								.getName());
+		}
+	}
+
+	@Test
+	public void forgottenCollectionsAreNoLongerCounted() throws Exception {
+		DirectoryTrie trie = createTrie(20);
+		DirectoryTrie.Node fish = trie
+				.getNode("Gamma/Interesting sea creatures/Fish/");
+		Collection gamma = trie.getCollection(fish);
+		Collection beta = trie.getCollection(trie
+				.getNode("Beta/Animals/Big cats/"));
+		assertNotSame(gamma, beta);
+		assertEquals(2, trie.getTruncatedNames());
+
+		collections.remove(beta.getName());
+		trie.forgetCollections(Collections.singleton(beta));
+		assertEquals(1, trie.getTruncatedNames());
+		assertSame(gamma, trie.getCollection(fish));
+
+		Collection again = trie.getCollection(trie
+				.getNode("Beta/Animals/Big cats/"));
+		assertNotSame(beta, again);
+		assertEquals(2, trie.getTruncatedNames());
+	}
+}
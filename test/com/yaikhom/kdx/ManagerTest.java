@@ -0,0 +1,319 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the scanning of a Kindle device tree.
+ * 
+ * @author gyaikhom
+ */
+public class ManagerTest {
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Creates a Kindle device root with the supplied documents, relative to
+	 * the documents root.
+	 */
+	private Path createDevice(String... documents) throws IOException {
+		Path root = folder.newFolder().toPath();
+		for (String d : new String[] { "audible", "music", "system" })
+			Files.createDirectory(root.resolve(d));
+		Path docs = Files.createDirectory(root.resolve("documents"));
+		for (String d : documents) {
+			Path p = docs.resolve(d);
+			Files.createDirectories(p.getParent());
+			Files.write(p, d.getBytes("UTF-8"));
+		}
+		return root;
+	}
+
+	/**
+	 * Scans a device, and returns its collections file, without the times
+	 * of last access.
+	 */
+	private static String scan(Path root, int threads) throws Exception {
+		Manager kdxm = new Manager(root.toString(), Manager.maxKDXDisplayLen,
+				threads, false);
+		kdxm.process();
+		return write(kdxm);
+	}
+
+	private static String write(Manager kdxm) throws IOException {
+		StringWriter out = new StringWriter();
+		kdxm.write(out);
+		return out.toString().replaceAll("\"lastAccess\":[0-9]+", "");
+	}
+
+	/**
+	 * Scans a device incrementally, as a later run with the same manifest
+	 * would.
+	 */
+	private String scanIncrementally(Path root) throws Exception {
+		Manager kdxm = new Manager(root.toString(), Manager.maxKDXDisplayLen,
+				1, false);
+		kdxm.setManifest(getManifestPath());
+		kdxm.process();
+		return write(kdxm);
+	}
+
+	private String getManifestPath() {
+		return new File(folder.getRoot(), "manifest").getPath();
+	}
+
+	/**
+	 * Sets the modification time of the documents root and its
+	 * subdirectories.
+	 */
+	private static void touch(Path root, long time, String... dirs)
+			throws IOException {
+		Path docs = root.resolve("documents");
+		Files.setLastModifiedTime(docs, FileTime.fromMillis(time));
+		for (String d : dirs)
+			Files.setLastModifiedTime(docs.resolve(d),
+					FileTime.fromMillis(time));
+	}
+
+	private static void link(Path link, String target) throws IOException {
+		try {
+			Files.createSymbolicLink(link, Paths.get(target));
+		} catch (UnsupportedOperationException e) {
+			Assume.assumeNoException(e);
+		}
+	}
+
+	@Test
+	public void parallelScanMatchesSequentialScan() throws Exception {
+		Path root = createDevice("Alpha/a.pdf", "Alpha/Hello World.pdf",
+				"Beta/b.pdf", "Beta/Sub/c.pdf",
+				"Beta/Sub/Book-asin_B000JQU1VS-type_EBOK-v_0.azw");
+		assertEquals(scan(root, 1), scan(root, 4));
+	}
+
+	@Test
+	public void parallelScanSkipsLoopsLikeSequentialScan() throws Exception {
+		Path root = createDevice("Alpha/a.pdf", "Beta/b.pdf",
+				"Beta/Sub/Book-asin_B000JQU1VS-type_EBOK-v_0.azw");
+		Path docs = root.resolve("documents");
+		link(docs.resolve("Alpha/loop"), "..");
+		link(docs.resolve("Beta/Sub/up"), "../../Beta");
+		String sequential = scan(root, 1);
+		assertEquals(sequential, scan(root, 4));
+
+		// the incremental scan is always parallel
+		Manager kdxm = new Manager(root.toString(), Manager.maxKDXDisplayLen,
+				1, false);
+		kdxm.setManifest(new File(folder.getRoot(), "m").getPath());
+		kdxm.process();
+		assertEquals(sequential, write(kdxm));
+	}
+
+	private static Manager merging(Path root, String json) throws IOException {
+		Path file = root.resolve("system/collections.json");
+		Files.write(file, json.getBytes("UTF-8"));
+		Manager kdxm = new Manager(root.toString(), Manager.maxKDXDisplayLen,
+				1, false);
+		kdxm.setMergeFile(file.toString());
+		return kdxm;
+	}
+
+	@Test
+	public void mergeKeepsDeviceCollections() throws Exception {
+		Path root = createDevice("Alpha/a.pdf", "Beta/b.pdf");
+		String favourites = "\"Say \\\"hi\\\"@en-US\":{\"items\":"
+				+ "[\"#B000JQU1VS^EBOK\"],\"lastAccess\":7}";
+		String german = "\"Gone@de-DE\":{\"items\":[],\"lastAccess\":3}";
+		Manager kdxm = merging(root, "{\"Alpha@en-US\":{\"items\":[],"
+				+ "\"lastAccess\":42,\"x\":[{}]}," + favourites + ",\n"
+				+ german + "}");
+		kdxm.process();
+		StringWriter out = new StringWriter();
+		kdxm.write(out);
+		String json = out.toString();
+		assertTrue(json, json.contains("\"Alpha@en-US\":{\"items\":[\"*"));
+		assertTrue(json, json.contains("\"],\"lastAccess\":42}"));
+		assertTrue(json, json.contains(favourites));
+		assertTrue(json, json.contains(german));
+		assertTrue(json, json.contains("\"Beta@en-US\""));
+
+		// the device collections survive a rescan
+		Files.write(root.resolve("documents/Beta/c.pdf"), new byte[1]);
+		kdxm.process();
+		out = new StringWriter();
+		kdxm.write(out);
+		String rescanned = out.toString();
+		assertFalse(json.equals(rescanned));
+		assertTrue(rescanned, rescanned.contains("\"],\"lastAccess\":42}"));
+		assertTrue(rescanned, rescanned.contains(favourites));
+		assertTrue(rescanned, rescanned.contains(german));
+	}
+
+	@Test
+	public void malformedMergeFileFailsTheScan() throws Exception {
+		Path root = createDevice("Alpha/a.pdf");
+		Manager kdxm = merging(root, "{\"Alpha@en-US\":{\"items\":[}");
+		try {
+			kdxm.process();
+			fail("Merged a malformed collections file");
+		} catch (IOException e) {
+			// expected
+		}
+		kdxm.setMergeFile(null);
+		kdxm.process();
+		assertEquals(scan(root, 1), write(kdxm));
+	}
+
+	@Test
+	public void unchangedDirectoriesAreReused() throws Exception {
+		Path root = createDevice("Alpha/a.pdf", "Beta/b.pdf");
+		long old = System.currentTimeMillis() - 3600000;
+		touch(root, old, "Alpha", "Beta");
+		String first = scanIncrementally(root);
+		assertEquals(scan(root, 1), first);
+
+		// a file added behind the back of the modification time is not seen
+		Files.write(root.resolve("documents/Alpha/new.pdf"), new byte[1]);
+		touch(root, old, "Alpha");
+		assertEquals(first, scanIncrementally(root));
+		assertFalse(first.equals(scan(root, 1)));
+	}
+
+	@Test
+	public void modifiedDirectoriesAreListed() throws Exception {
+		Path root = createDevice("Alpha/a.pdf", "Beta/b.pdf");
+		long old = System.currentTimeMillis() - 3600000;
+		touch(root, old, "Alpha", "Beta");
+		scanIncrementally(root);
+		Files.write(root.resolve("documents/Alpha/new.pdf"), new byte[1]);
+		touch(root, old, "Beta");
+		touch(root, old + 1000, "Alpha");
+		assertEquals(scan(root, 1), scanIncrementally(root));
+	}
+
+	@Test
+	public void recentlyModifiedDirectoriesAreListed() throws Exception {
+		Path root = createDevice("Alpha/a.pdf", "Beta/b.pdf");
+		long old = System.currentTimeMillis() - 3600000;
+		long recent = System.currentTimeMillis() - 1000;
+		touch(root, old, "Beta");
+		Files.setLastModifiedTime(root.resolve("documents/Alpha"),
+				FileTime.fromMillis(recent));
+		scanIncrementally(root);
+
+		// within the resolution of the modification time, so not recorded
+		Manifest m = Manifest.load(getManifestPath());
+		assertNull(m.lookup("Alpha/", recent));
+		assertNotNull(m.lookup("Beta/", old));
+
+		Files.write(root.resolve("documents/Alpha/new.pdf"), new byte[1]);
+		Files.setLastModifiedTime(root.resolve("documents/Alpha"),
+				FileTime.fromMillis(recent));
+		touch(root, old);
+		assertEquals(scan(root, 1), scanIncrementally(root));
+	}
+
+	@Test
+	public void unchangedCollectionsAreNotSaved() throws Exception {
+		Path root = createDevice("Alpha/a.pdf");
+		Path file = root.resolve("system/collections.json");
+		Manager kdxm = new Manager(root.toString(), Manager.maxKDXDisplayLen,
+				1, false);
+		kdxm.process();
+		assertTrue(kdxm.save(file.toString()));
+		assertFalse(kdxm.save(file.toString()));
+
+		// a later run leaves the byte-identical file untouched
+		FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 3600000);
+		Files.setLastModifiedTime(file, old);
+		byte[] saved = Files.readAllBytes(file);
+		Path backup = root.resolve("system/collections.json.bak");
+		assertFalse(kdxm.save(file.toString(), backup.toString()));
+		assertEquals(old, Files.getLastModifiedTime(file));
+		assertArrayEquals(saved, Files.readAllBytes(file));
+		assertFalse(Files.exists(backup));
+		assertFalse(Files.exists(root.resolve("system/collections.json.tmp")));
+
+		Files.write(root.resolve("documents/Alpha/b.pdf"), new byte[1]);
+		kdxm.process();
+		assertTrue(kdxm.save(file.toString(), backup.toString()));
+		assertArrayEquals(saved, Files.readAllBytes(backup));
+		assertFalse(old.equals(Files.getLastModifiedTime(file)));
+	}
+
+	@Test
+	public void addedAndRemovedPathsMatchScan() throws Exception {
+		Path root = createDevice("Alpha/a.pdf", "Beta/b.pdf");
+		Path docs = root.resolve("documents");
+		Manager kdxm = new Manager(root.toString(), Manager.maxKDXDisplayLen,
+				1, false);
+		kdxm.process();
+
+		Files.write(docs.resolve("Alpha/c.pdf"), new byte[1]);
+		Files.createDirectories(docs.resolve("Gamma/Sub"));
+		Files.write(docs.resolve("Gamma/Sub/d.pdf"), new byte[1]);
+		kdxm.addPath(docs.resolve("Alpha/c.pdf"));
+		kdxm.addPath(docs.resolve("Gamma"));
+		String added = scan(root, 1);
+		assertEquals(added, write(kdxm));
+
+		// files that are already collected are not added again
+		kdxm.addPath(docs.resolve("Alpha/a.pdf"));
+		kdxm.addPath(docs.resolve("Alpha"));
+		kdxm.addPath(docs.resolve("Gamma"));
+		assertEquals(added, write(kdxm));
+
+		Files.delete(docs.resolve("Alpha/a.pdf"));
+		kdxm.removePath(docs.resolve("Alpha/a.pdf"));
+		Files.delete(docs.resolve("Gamma/Sub/d.pdf"));
+		Files.delete(docs.resolve("Gamma/Sub"));
+		Files.delete(docs.resolve("Gamma"));
+		kdxm.removePath(docs.resolve("Gamma"));
+		assertEquals(scan(root, 1), write(kdxm));
+	}
+}
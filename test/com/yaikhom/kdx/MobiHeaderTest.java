@@ -0,0 +1,177 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the reading of the meta-data in MOBI headers, from documents built
+ * with the layout described in {@link MobiHeader}.
+ * 
+ * @author gyaikhom
+ */
+public class MobiHeaderTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MOBI_HEADER_LENGTH = 232;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Writes a MOBI document whose first record starts at the supplied
+	 * offset, with the supplied EXTH records (type, value), or without an
+	 * EXTH header if there are none.
+	 */
+	private Path write(int record0, Object... exth) throws IOException {
+		int exthLength = 12;
+		for (int i = 1; i < exth.length; i += 2)
+			exthLength += 8 + ((String) exth[i]).getBytes(UTF8).length;
+		ByteBuffer b = ByteBuffer.allocate(record0 + 16 + MOBI_HEADER_LENGTH
+				+ exthLength + 64);
+		b.position(60);
+		b.put("BOOKMOBI".getBytes(UTF8));
+		b.putShort(76, (short) 1);
+		b.putInt(78, record0);
+
+		int mobi = record0 + 16; // after the PalmDOC header
+		b.position(mobi);
+		b.put("MOBI".getBytes(UTF8));
+		b.putInt(mobi + 4, MOBI_HEADER_LENGTH);
+		b.putInt(mobi + 12, 65001); // UTF-8
+		if (exth.length > 0) {
+			b.putInt(mobi + 0x70, 0x40);
+			b.position(mobi + MOBI_HEADER_LENGTH);
+			b.put("EXTH".getBytes(UTF8));
+			b.putInt(exthLength);
+			b.putInt(exth.length / 2);
+			for (int i = 0; i < exth.length; i += 2) {
+				byte[] value = ((String) exth[i + 1]).getBytes(UTF8);
+				b.putInt((Integer) exth[i]);
+				b.putInt(8 + value.length);
+				b.put(value);
+			}
+		}
+		Path file = folder.newFile().toPath();
+		Files.write(file, b.array());
+		return file;
+	}
+
+	@Test
+	public void asinAndTypeAreRead() throws IOException {
+		MobiHeader h = MobiHeader.read(write(88, MobiHeader.EXTH_CDE_TYPE,
+				"EBOK", MobiHeader.EXTH_ASIN, "B000JQU1VS"));
+		assertEquals("B000JQU1VS", h.getAsin());
+		assertEquals("EBOK", h.getDocumentType());
+	}
+
+	@Test
+	public void headerBeyondFirstPageIsRead() throws IOException {
+		MobiHeader h = MobiHeader.read(write(5000, MobiHeader.EXTH_ASIN,
+				"B000JQU1VS", MobiHeader.EXTH_CDE_TYPE, "PDOC"));
+		assertEquals("B000JQU1VS", h.getAsin());
+		assertEquals("PDOC", h.getDocumentType());
+	}
+
+	@Test
+	public void exthSpanningPagesIsRead() throws IOException {
+		MobiHeader h = MobiHeader.read(write(4096 - 16 - MOBI_HEADER_LENGTH
+				- 4, MobiHeader.EXTH_ASIN, "B000JQU1VS"));
+		assertEquals("B000JQU1VS", h.getAsin());
+	}
+
+	@Test
+	public void alternativeAsinIsOnlyUsedWithoutAsin() throws IOException {
+		assertEquals("B0ALT", MobiHeader.read(
+				write(88, MobiHeader.EXTH_ASIN_ALT, "B0ALT")).getAsin());
+		assertEquals("B0MAIN", MobiHeader.read(
+				write(88, MobiHeader.EXTH_ASIN_ALT, "B0ALT",
+						MobiHeader.EXTH_ASIN, "B0MAIN")).getAsin());
+		assertEquals("B0MAIN", MobiHeader.read(
+				write(88, MobiHeader.EXTH_ASIN, "B0MAIN",
+						MobiHeader.EXTH_ASIN_ALT, "B0ALT")).getAsin());
+	}
+
+	@Test
+	public void headerWithoutExthHasNoMetadata() throws IOException {
+		MobiHeader h = MobiHeader.read(write(88));
+		assertNotNull(h);
+		assertNull(h.getAsin());
+		assertNull(h.getDocumentType());
+	}
+
+	/**
+	 * Overwrites an integer of a file.
+	 */
+	private static void patch(Path file, int offset, int value)
+			throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file));
+		b.putInt(offset, value);
+		Files.write(file, b.array());
+	}
+
+	@Test
+	public void malformedExthIsIgnored() throws IOException {
+		int exth = 88 + 16 + MOBI_HEADER_LENGTH;
+		Path file = write(88, MobiHeader.EXTH_ASIN, "B000JQU1VS");
+		patch(file, exth + 12 + 4, 0x7FFFFFF8); // record length
+		MobiHeader h = MobiHeader.read(file);
+		assertNotNull(h);
+		assertNull(h.getAsin());
+
+		file = write(88, MobiHeader.EXTH_ASIN, "B000JQU1VS");
+		patch(file, exth + 4, 0x7FFFFFF0); // EXTH length
+		h = MobiHeader.read(file);
+		assertNotNull(h);
+		assertNull(h.getAsin());
+
+		file = write(88, MobiHeader.EXTH_ASIN, "B000JQU1VS");
+		patch(file, 78, 0x7FFFFFF0); // first record beyond the file
+		assertNull(MobiHeader.read(file));
+	}
+
+	@Test
+	public void otherFilesAreNotRead() throws IOException {
+		Path file = folder.newFile().toPath();
+		Files.write(file, new byte[4096]);
+		assertNull(MobiHeader.read(file));
+		Files.write(file, new byte[10]);
+		assertNull(MobiHeader.read(file));
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * This file is part of the kdxgen project (http://kdxgen.sourceforge.net)
+ * 
+ * Copyright (c) 2010, 2011 Gagarine Yaikhom
+ * 
+ * 
+ * All programs in this directory and subdirectories are published under the GNU
+ * General Public License as described below.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * Further information about the GNU GPL is available at:
+ * http://www.gnu.org/copyleft/gpl.ja.html
+ */
+
+package com.yaikhom.kdx;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * Tests the natural order of names, and the rewriting of their numbers.
+ * 
+ * @author gyaikhom
+ */
+public class NaturalOrderTest {
+	private static String[] sort(NaturalOrder order, String[] names,
+			ForkJoinPool pool) {
+		int[] sorted = order.sort(names, names, pool);
+		String[] result = new String[names.length];
+		for (int i = 0; i < names.length; i++)
+			result[i] = names[sorted[i]];
+		return result;
+	}
+
+	private static String digits(int n, char d) {
+		char[] c = new char[n];
+		Arrays.fill(c, d);
+		return new String(c);
+	}
+
+	@Test
+	public void numbersAreExpanded() {
+		assertEquals("Volume", NaturalOrder.expandNumbers("Volume"));
+		assertEquals("Volume 019", NaturalOrder.expandNumbers("Volume 9"));
+		assertEquals("Volume 0210", NaturalOrder.expandNumbers("Volume 10"));
+		assertEquals("Volume 0210", NaturalOrder.expandNumbers("Volume 010"));
+		assertEquals("00-0242", NaturalOrder.expandNumbers("0-42"));
+	}
+
+	@Test
+	public void longNumbersAreExpanded() {
+		assertEquals("98" + digits(98, '1'),
+				NaturalOrder.expandNumbers(digits(98, '1')));
+		assertEquals("990299" + digits(99, '1'),
+				NaturalOrder.expandNumbers(digits(99, '1')));
+		assertEquals("9903120" + digits(120, '1'),
+				NaturalOrder.expandNumbers(digits(120, '1')));
+	}
+
+	@Test
+	public void longNumbersFollowShorterNumbers() {
+		String[] numbers = new String[150];
+		for (int i = 0; i < numbers.length; i++)
+			numbers[i] = NaturalOrder.expandNumbers(digits(i + 1, '9'));
+		for (int i = 1; i < numbers.length; i++)
+			assertTrue(numbers[i - 1].compareTo(numbers[i]) < 0);
+		assertTrue(NaturalOrder.expandNumbers(digits(99, '9')).compareTo(
+				NaturalOrder.expandNumbers("1" + digits(99, '0'))) < 0);
+	}
+
+	@Test
+	public void numbersAreOrderedByValue() {
+		String[] names = { "Volume 10", "Volume 9", "Volume 1", "Volume 010",
+				"Volume 100" };
+		String[] expected = { "Volume 1", "Volume 9", "Volume 010",
+				"Volume 10", "Volume 100" };
+		assertArrayEquals(expected, sort(new NaturalOrder(null), names, null));
+		assertArrayEquals(expected, sort(new NaturalOrder(Locale.US), names,
+				null));
+	}
+
+	@Test
+	public void characterOrderIgnoresLocale() {
+		String[] names = { "b", "B", "a", "é", "e", "A" };
+		String[] expected = { "A", "B", "a", "b", "e", "é" };
+		assertArrayEquals(expected, sort(new NaturalOrder(null), names, null));
+		Locale saved = Locale.getDefault();
+		try {
+			Locale.setDefault(new Locale("sv", "SE"));
+			assertArrayEquals(expected, sort(new NaturalOrder(null), names,
+					null));
+		} finally {
+			Locale.setDefault(saved);
+		}
+	}
+
+	@Test
+	public void parallelSortMatchesSequentialSort() {
+		String[] names = new String[20000];
+		for (int i = 0; i < names.length; i++)
+			names[i] = "Volume " + ((i * 7919) % 5003);
+		NaturalOrder order = new NaturalOrder(Locale.US);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertArrayEquals(order.sort(names, names, null), order.sort(
+					names, names, pool));
+		} finally {
+			pool.shutdown();
+		}
+	}
+}